@@ -2,7 +2,7 @@
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
 import java.util.InputMismatchException;
 import java.util.Random;
 import java.util.Scanner;
@@ -89,22 +89,40 @@ public class MST {
         }
 
         public static final DFS search(Node[] list, int initial) {
-            Node[] predcessors = new Node[list.length];
-            int nodesReached = search(null, list[0], predcessors, new HashSet<Node>());
-            return new DFS(nodesReached, predcessors);
+            int n = list.length;
+            long[] seen = new long[(n + 63) >>> 6];
+            int[] predecessors = new int[n];
+            int[] stack = new int[n];
+            int[] cursor = new int[n];
+            Arrays.fill(predecessors, -1);
+            int depth = 0;
+            stack[depth++] = initial;
+            seen[initial >>> 6] |= 1L << initial;
+            int nodesReached = 1;
+            while (depth > 0) {
+                int current = stack[depth - 1];
+                ArrayList<Vertex> vertices = list[current].vertices;
+                if (cursor[current] == vertices.size()) {
+                    depth--;
+                    continue;
+                }
+                int target = vertices.get(cursor[current]++).target.id;
+                if ((seen[target >>> 6] & (1L << target)) == 0) {
+                    seen[target >>> 6] |= 1L << target;
+                    predecessors[target] = current;
+                    stack[depth++] = target;
+                    nodesReached++;
+                }
+            }
+            return new DFS(nodesReached, toNodes(list, predecessors));
         }
 
-        private static final int search(Node previous, Node current, Node[] predcessors, HashSet<Node> seen) {
-            if (seen.contains(current)) {
-                return 0;
-            }
-            seen.add(current);
-            predcessors[current.id] = previous;
-            int count = 1;
-            for (Vertex vertex : current.vertices) {
-                count += search(current, vertex.target, predcessors, seen);
+        private static Node[] toNodes(Node[] list, int[] predecessors) {
+            Node[] nodes = new Node[predecessors.length];
+            for (int i = 0; i < predecessors.length; i++) {
+                nodes[i] = predecessors[i] < 0 ? null : list[predecessors[i]];
             }
-            return count;
+            return nodes;
         }
 
     }
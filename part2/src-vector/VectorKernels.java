@@ -0,0 +1,84 @@
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The dense matrix kernels of {@link MST.Kernels} over the incubating Vector
+ * API, working on as many ints at once as the preferred species of the
+ * machine holds. The ends of each range that do not fill a vector are done
+ * one int at a time, so the results match the scalar loops exactly.
+ *
+ * This class only compiles and runs with the incubator module added, so it
+ * lives in its own source root and is only built when asked for:
+ *
+ * javac --add-modules jdk.incubator.vector -d out src/MST.java src-vector/VectorKernels.java
+ * java --add-modules jdk.incubator.vector -cp out MST input
+ *
+ * src/MST.java builds on its own, and MST falls back to the scalar loops
+ * when this class or the module is missing.
+ *
+ * @author Joseph Cumbo (jwc6999)
+ */
+public class VectorKernels implements MST.Kernels {
+
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+    @Override
+    public int min(int[] keys, int from, int to) {
+        int min = Integer.MAX_VALUE;
+        int i = from;
+        if (to - from >= SPECIES.length()) {
+            int upper = from + SPECIES.loopBound(to - from);
+            IntVector lowest = IntVector.broadcast(SPECIES, Integer.MAX_VALUE);
+            for (; i < upper; i += SPECIES.length()) {
+                lowest = lowest.min(IntVector.fromArray(SPECIES, keys, i));
+            }
+            min = lowest.reduceLanes(VectorOperators.MIN);
+        }
+        for (; i < to; i++) {
+            min = Math.min(min, keys[i]);
+        }
+        return min;
+    }
+
+    @Override
+    public int nonZero(int[] row, int from, int to) {
+        int i = from;
+        if (to - from >= SPECIES.length()) {
+            int upper = from + SPECIES.loopBound(to - from);
+            for (; i < upper; i += SPECIES.length()) {
+                VectorMask<Integer> found = IntVector.fromArray(SPECIES, row, i).compare(VectorOperators.NE, 0);
+                if (found.anyTrue()) {
+                    return i + found.firstTrue();
+                }
+            }
+        }
+        for (; i < to; i++) {
+            if (row[i] != 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int indexOf(int[] keys, int from, int to, int value) {
+        int i = from;
+        if (to - from >= SPECIES.length()) {
+            int upper = from + SPECIES.loopBound(to - from);
+            for (; i < upper; i += SPECIES.length()) {
+                VectorMask<Integer> found = IntVector.fromArray(SPECIES, keys, i).compare(VectorOperators.EQ, value);
+                if (found.anyTrue()) {
+                    return i + found.firstTrue();
+                }
+            }
+        }
+        for (; i < to; i++) {
+            if (keys[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
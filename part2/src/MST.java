@@ -1,50 +1,457 @@
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.InputMismatchException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Random;
 import java.util.Scanner;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
 
 /**
  * @author Joseph Cumbo (jwc6999)
  */
 public class MST {
 
+    /**
+     * The largest number of edges the CSR mode will insertion sort.
+     */
+    private static final int INSERTION_SORT_LIMIT = 100000;
+    /**
+     * The vector kernels for the dense matrix loops, or null if they can not
+     * be used.
+     */
+    static final Kernels KERNELS = Kernels.load();
+
     public static void main(String[] args) {
         if (args.length < 1) {
             System.out.println("Input file not found");
             return;
         }
+        loadEvents();
+        if (args[0].equals("--bench")) {
+            Benchmark.run(args);
+            return;
+        }
+        // Words after the input are jobs=<count>, virtual,
+        // format=<text|csv|json>, cache=<megabytes> and spill=<directory>.
+        int jobs = 1;
+        boolean virtual = false;
+        Metrics.Format format = Metrics.Format.TEXT;
+        long cacheBudget = 0;
+        Path spill = null;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].startsWith("jobs=")) {
+                jobs = parseInt(args[i].substring(5), -1);
+                if (jobs < 1) {
+                    System.out.println("jobs must be a whole number greater than 0");
+                    return;
+                }
+            } else if (args[i].equals("virtual")) {
+                virtual = true;
+            } else if (args[i].startsWith("format=")) {
+                format = Metrics.Format.parse(args[i].substring(7));
+                if (format == null) {
+                    System.out.println("format must be text, csv or json");
+                    return;
+                }
+            } else if (args[i].startsWith("cache=")) {
+                long megabytes = parseLong(args[i].substring(6), -1);
+                if (megabytes < 0 || megabytes >= 1L << 40) {
+                    System.out.println("cache must be a whole number of megabytes");
+                    return;
+                }
+                cacheBudget = megabytes << 20;
+            } else if (args[i].startsWith("spill=")) {
+                try {
+                    spill = Paths.get(args[i].substring(6));
+                } catch (InvalidPathException ex) {
+                    System.out.println("spill must be a directory path");
+                    return;
+                }
+            }
+        }
+        GraphCache graphCache = cacheBudget > 0 || spill != null ? new GraphCache(cacheBudget, spill) : null;
+        // A directory is read as a batch of input files, in name order.
+        File input = new File(args[0]);
+        File[] files = new File[]{input};
+        if (input.isDirectory()) {
+            files = input.listFiles(File::isFile);
+            Arrays.sort(files);
+        }
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
+        Runner runner = new Runner(jobs, virtual, format, graphCache, out);
         try {
-            Scanner reader = new Scanner(new File(args[0]));
-            int n = reader.nextInt();
-            int seed = reader.nextInt();
-            double p = reader.nextDouble();
-            if (n < 2) {
-                System.out.println("n must be greater than 1");
-                return;
-            } else if (!Double.isFinite(p)) {
-                System.out.println("p must be a real number");
-                return;
-            } else if (p < 0 || p > 1) {
-                System.out.println("p must be between 0 and 1");
-                return;
+            if (format == Metrics.Format.CSV) {
+                out.write(Metrics.CSV_HEADER + "\n");
             }
-            Graph graph = Graph.generate(n, seed, p);
-            System.out.println(graph.toString());
-            System.out.println(EdgeSortResult.doInsertionSortMatrix(graph).toString());
-            System.out.println(EdgeSortResult.doCountSortMatrix(graph).toString());
-            System.out.println(EdgeSortResult.doQuickSortMatrix(graph).toString());
-            System.out.println(EdgeSortResult.doInsertionSortList(graph).toString());
-            System.out.println(EdgeSortResult.doCountSortList(graph).toString());
-            System.out.println(EdgeSortResult.doQuickSortList(graph).toString());
-        } catch (InputMismatchException ex) {
-            System.out.println("n and seed must be integers");
+            for (File file : files) {
+                runFile(file, runner);
+            }
+            runner.finish();
+            out.flush();
+        } catch (IOException ex) {
+            System.err.println("Output could not be written: " + ex.getMessage());
+        } finally {
+            runner.shutdown();
+        }
+    }
+
+    /**
+     * Reads every test case in the given file and hands it to the runner.
+     * Each case is n, seed and p followed by any options, and the next case
+     * starts at the next integer. A case that can not be read is reported
+     * and the rest of its line skipped.
+     *
+     * @param file the input file.
+     * @param runner the runner to hand cases to.
+     * @throws IOException if the output can not be written.
+     */
+    private static void runFile(File file, Runner runner) throws IOException {
+        try (Scanner reader = new Scanner(file)) {
+            do {
+                try {
+                    int n = reader.nextInt();
+                    int seed = reader.nextInt();
+                    double p = reader.nextDouble();
+                    // Trailing words are options, either flags or key=value pairs.
+                    HashMap<String, String> options = new HashMap<String, String>();
+                    while (reader.hasNext() && !reader.hasNextInt()) {
+                        String[] option = reader.next().split("=", 2);
+                        options.put(option[0].toLowerCase(), option.length == 2 ? option[1] : "");
+                    }
+                    if (n < 2) {
+                        runner.submit(new TestCase("n must be greater than 1"));
+                    } else if (!Double.isFinite(p)) {
+                        runner.submit(new TestCase("p must be a real number"));
+                    } else if (p < 0 || p > 1) {
+                        runner.submit(new TestCase("p must be between 0 and 1"));
+                    } else if (options.containsKey("external") && externalBudget(options) <= 0) {
+                        runner.submit(new TestCase("external must be a positive number of megabytes"));
+                    } else if (options.containsKey("external") && options.containsKey("parallel")) {
+                        runner.submit(new TestCase("parallel sampling can not run out of core"));
+                    } else if (options.containsKey("csr") && options.containsKey("offheap") && options.containsKey("cache")) {
+                        runner.submit(new TestCase("an off heap graph can not be written to a graph file"));
+                    } else if (TestCase.matrixTooLarge(n, options)) {
+                        // Sparse sampling scales to graphs whose matrix does not.
+                        runner.submit(new TestCase("the adjacency matrix for n=" + n + " does not fit in memory, use csr"));
+                    } else {
+                        runner.submit(new TestCase(n, seed, p, options));
+                    }
+                } catch (InputMismatchException ex) {
+                    runner.submit(new TestCase("n and seed must be integers"));
+                    // Skip the rest of the bad case and carry on with the next line.
+                    reader.nextLine();
+                } catch (NoSuchElementException ex) {
+                    runner.submit(new TestCase("n, seed and p must all be given"));
+                }
+            } while (reader.hasNext());
         } catch (FileNotFoundException ex) {
-            System.out.println("Input file not found");
+            runner.submit(new TestCase("Input file not found"));
+        }
+    }
+
+    /**
+     * Reads the external=MB option of a case.
+     *
+     * @return the budget in bytes, or -1 if the option is not a positive
+     * number of megabytes.
+     */
+    private static long externalBudget(HashMap<String, String> options) {
+        long megabytes = parseLong(options.get("external"), -1);
+        return megabytes > 0 && megabytes < 1L << 40 ? megabytes << 20 : -1;
+    }
+
+    /**
+     * @return the given text as an int, or the fallback if it is not one.
+     */
+    private static int parseInt(String text, int fallback) {
+        try {
+            return Integer.parseInt(text);
+        } catch (NumberFormatException ex) {
+            return fallback;
+        }
+    }
+
+    /**
+     * @return the given text as a long, or the fallback if it is not one.
+     */
+    private static long parseLong(String text, long fallback) {
+        try {
+            return Long.parseLong(text);
+        } catch (NumberFormatException ex) {
+            return fallback;
+        }
+    }
+
+    /**
+     * Writes the buffer followed by a new line and clears the buffer.
+     */
+    private static void println(Writer out, StringBuilder buffer) throws IOException {
+        out.append(buffer).append('\n');
+        buffer.setLength(0);
+    }
+
+    /**
+     * Writes the given result as text, or as metrics lines when there are
+     * metrics, and clears the buffer.
+     */
+    private static void report(Writer out, StringBuilder buffer, Metrics metrics, Result result) throws IOException {
+        if (metrics == null) {
+            println(out, result.appendTo(buffer));
+        } else {
+            result.addMetrics(metrics);
+            out.append(buffer);
+            buffer.setLength(0);
+        }
+    }
+
+    /**
+     * Generates the graph for a single test case and writes its sorts and
+     * spanning trees.
+     *
+     * @param n the number of nodes.
+     * @param seed the seed for the graph.
+     * @param p the probability of an edge.
+     * @param options the options given after p.
+     * @param threads the number of threads the case may use.
+     * @param format the format to write results in.
+     * @param graphCache the cache of generated graphs, or null.
+     * @param out the output to stream results to.
+     * @param buffer a scratch buffer for formatting results.
+     * @throws IOException if a graph file or the output can not be used.
+     */
+    private static void runCase(int n, int seed, double p, HashMap<String, String> options, int threads, Metrics.Format format,
+            GraphCache graphCache, Writer out, StringBuilder buffer) throws IOException {
+        Metrics metrics = format == Metrics.Format.TEXT ? null : new Metrics(n, seed, p, format, buffer);
+        GenerationResult.Connectivity connectivity = options.containsKey("repair")
+                ? GenerationResult.Connectivity.REPAIR
+                : GenerationResult.Connectivity.RESTART;
+        GenerationResult.Sampling sampling = GenerationResult.Sampling.DENSE;
+        if (options.containsKey("sparse")) {
+            sampling = GenerationResult.Sampling.SPARSE;
+        } else if (options.containsKey("parallel")) {
+            sampling = GenerationResult.Sampling.PARALLEL;
+        }
+        if (options.containsKey("external")) {
+            Path directory = Paths.get(System.getProperty("java.io.tmpdir"));
+            ExternalKruskal external = ExternalKruskal.run(n, seed, p, sampling, connectivity, externalBudget(options), directory);
+            report(out, buffer, metrics, external);
+            report(out, buffer, metrics, external.tree);
+            return;
+        }
+        if (options.containsKey("csr") && options.containsKey("offheap")) {
+            // As with an off heap matrix, the graph is freed as soon as the
+            // case is done, so it is never shared through the cache.
+            CSRGraph graph = CSRGraph.generate(n, seed, p, sampling, connectivity, true);
+            try {
+                report(out, buffer, metrics, graph);
+                // Only the trees that read the edges where they are held;
+                // the others would copy them back onto the heap.
+                try (OffHeapEdgeStore offHeap = OffHeapEdgeStore.fromCSR(graph)) {
+                    report(out, buffer, metrics, PrimitiveMSTResult.doKruskal(n, offHeap));
+                }
+                report(out, buffer, metrics, PrimitiveMSTResult.doPrim(graph));
+            } finally {
+                graph.release();
+            }
+            return;
+        }
+        if (options.containsKey("csr")) {
+            CSRGraph graph = null;
+            // How the graph was found if it was not generated, or null.
+            ReusedGraph reused = null;
+            SortedEdges presorted = null;
+            // The cost of sorting the edges to cache them, or null if they
+            // were reused.
+            Stage presort = null;
+            String key = GraphCache.key(n, seed, p, "CSR " + sampling + " " + connectivity);
+            if (graphCache != null) {
+                Stopwatch watch = Stopwatch.start();
+                GraphCache.Entry entry = graphCache.get(key);
+                if (entry != null) {
+                    graph = (CSRGraph) entry.graph;
+                    presorted = entry.sorted;
+                    reused = new ReusedGraph(graph, "cache", "Time to find the graph in the cache", watch.lap());
+                }
+            }
+            Path cache = options.containsKey("cache") ? Paths.get(options.get("cache")) : null;
+            if (graph == null && cache != null && Files.exists(cache)) {
+                Stopwatch watch = Stopwatch.start();
+                GraphFile file = GraphFile.open(cache);
+                if (file.matches(n, seed, p, sampling, connectivity)) {
+                    graph = file.toCSRGraph();
+                    presorted = file.sortedEdges();
+                    reused = new ReusedGraph(graph, "load", "Time to load the graph from " + cache, watch.lap());
+                }
+            }
+            if (graph == null) {
+                graph = CSRGraph.generate(n, seed, p, sampling, connectivity);
+                if (cache != null || graphCache != null) {
+                    Stopwatch watch = Stopwatch.start();
+                    EdgeStore sorted = EdgeStore.fromCSR(graph);
+                    sorted.quickSort();
+                    presorted = SortedEdges.of(sorted);
+                    presort = watch.lap();
+                }
+                if (cache != null) {
+                    GraphFile.write(cache, graph, presorted);
+                }
+            }
+            if (graphCache != null) {
+                graphCache.put(key, graph, presorted);
+            }
+            report(out, buffer, metrics, reused == null ? graph : reused);
+            if (presort != null) {
+                if (metrics == null) {
+                    println(out, buffer.append("Time to sort the edges for the cache: ").append(presort.millis()).append(" milliseconds"));
+                } else {
+                    metrics.add("presort", "CSR", presort, -1, -1, -1);
+                }
+            } else if (presorted != null) {
+                // Only a reused graph has edges that were sorted for free.
+                report(out, buffer, metrics, PrimitiveMSTResult.doKruskal(n, presorted));
+            }
+            EdgeStore store = EdgeStore.fromCSR(graph);
+            // Insertion sort is quadratic, only run it where it finishes.
+            List<Supplier<PrimitiveSortResult>> sorts = new ArrayList<Supplier<PrimitiveSortResult>>();
+            if (store.size <= INSERTION_SORT_LIMIT) {
+                sorts.add(() -> PrimitiveSortResult.doInsertionSort(store));
+            }
+            sorts.add(() -> PrimitiveSortResult.doCountSort(store));
+            sorts.add(() -> PrimitiveSortResult.doQuickSort(store));
+            // As in runGraph, only one sorted copy of the edges is alive at a
+            // time and the trees are written after all of the sorts.
+            StringWriter trees = new StringWriter();
+            for (Supplier<PrimitiveSortResult> sort : sorts) {
+                PrimitiveSortResult sortResult = sort.get();
+                report(out, buffer, metrics, sortResult);
+                report(trees, buffer, metrics, PrimitiveMSTResult.doKruskal(n, sortResult));
+            }
+            out.write(trees.toString());
+            report(out, buffer, metrics, PrimitiveMSTResult.doKruskal(graph));
+            report(out, buffer, metrics, PrimitiveMSTResult.doPrim(graph));
+            report(out, buffer, metrics, PrimitiveMSTResult.doFilterKruskal(graph));
+            return;
+        }
+        Graph.MatrixStorage storage = Graph.MatrixStorage.FULL;
+        if (options.containsKey("offheap")) {
+            storage = Graph.MatrixStorage.OFF_HEAP;
+        } else if (options.containsKey("compact")) {
+            storage = Graph.MatrixStorage.COMPACT;
+        }
+        if (storage == Graph.MatrixStorage.OFF_HEAP) {
+            // An off heap graph is freed as soon as the case is done, so it is
+            // never shared through the cache.
+            Graph graph = Graph.generate(n, seed, p, sampling, connectivity, threads, storage);
+            try {
+                runGraph(graph, graph, threads, metrics, out, buffer);
+            } finally {
+                graph.release();
+            }
+            return;
+        }
+        String key = GraphCache.key(n, seed, p, "GRAPH " + sampling + " " + connectivity + (storage == Graph.MatrixStorage.COMPACT ? " COMPACT" : ""));
+        Graph graph = null;
+        ReusedGraph reused = null;
+        if (graphCache != null) {
+            Stopwatch watch = Stopwatch.start();
+            GraphCache.Entry entry = graphCache.get(key);
+            if (entry != null) {
+                graph = (Graph) entry.graph;
+                reused = new ReusedGraph(graph, "cache", "Time to find the graph in the cache", watch.lap());
+            }
+        }
+        if (graph == null) {
+            graph = Graph.generate(n, seed, p, sampling, connectivity, threads, storage);
+            if (graphCache != null) {
+                graphCache.put(key, graph);
+            }
+        }
+        runGraph(graph, reused == null ? graph : reused, threads, metrics, out, buffer);
+    }
+
+    /**
+     * Writes the given graph along with its sorts and spanning trees.
+     *
+     * @param header the result to report the graph as, either the graph
+     * itself or how it was reused.
+     */
+    private static void runGraph(Graph graph, Result header, int threads, Metrics metrics, Writer out, StringBuilder buffer) throws IOException {
+        int n = graph.n;
+        report(out, buffer, metrics, header);
+        List<Supplier<EdgeSortResult>> sorts = Arrays.asList(
+                () -> EdgeSortResult.doInsertionSortMatrix(graph),
+                () -> EdgeSortResult.doCountSortMatrix(graph),
+                () -> EdgeSortResult.doQuickSortMatrix(graph),
+                () -> EdgeSortResult.doRadixSortMatrix(graph),
+                () -> EdgeSortResult.doIntroSortMatrix(graph),
+                () -> EdgeSortResult.doInsertionSortList(graph),
+                () -> EdgeSortResult.doCountSortList(graph),
+                () -> EdgeSortResult.doQuickSortList(graph),
+                () -> EdgeSortResult.doRadixSortList(graph),
+                () -> EdgeSortResult.doIntroSortList(graph));
+        // Each tree is built as soon as its sort is done so only one sorted
+        // copy of the edges is alive at a time. The trees are still written
+        // after all of the sorts.
+        StringWriter trees = new StringWriter();
+        for (Supplier<EdgeSortResult> sort : sorts) {
+            EdgeSortResult sortResult = sort.get();
+            report(out, buffer, metrics, sortResult);
+            report(trees, buffer, metrics, MSTResult.doKruskal(n, sortResult));
         }
+        out.write(trees.toString());
+        report(out, buffer, metrics, MSTResult.doPrimMatrix(graph));
+        report(out, buffer, metrics, MSTResult.doPrimList(graph));
+        report(out, buffer, metrics, MSTResult.doBoruvka(graph, threads));
+        report(out, buffer, metrics, MSTResult.doFilterKruskal(graph));
     }
 
     public static class Node {
@@ -66,14 +473,24 @@ public class MST {
             edges.add(new Edge(this, target, weight));
         }
 
-        @Override
-        public String toString() {
-            String result = id + "-> ";
+        /**
+         * Appends this node and its neighbors to the given builder.
+         *
+         * @param result the builder to append to.
+         * @return the builder.
+         */
+        public StringBuilder appendTo(StringBuilder result) {
+            result.append(id).append("-> ");
             for (Edge vertex : edges) {
-                result += vertex.target.id + "(" + vertex.weight + ") ";
+                result.append(vertex.target.id).append('(').append(vertex.weight).append(") ");
             }
             return result;
         }
+
+        @Override
+        public String toString() {
+            return appendTo(new StringBuilder()).toString();
+        }
     }
 
     public static class Edge implements Comparable<Edge> {
@@ -99,19 +516,40 @@ public class MST {
 
         @Override
         public int compareTo(Edge o) {
-            int result = this.weight - o.weight;
+            return compare(this.weight, this.source.id, this.target.id, o.weight, o.source.id, o.target.id);
+        }
+
+        /**
+         * Compares two edges given as primitives using the same order as
+         * {@link #compareTo(Edge)}: by weight, then source id, then target id.
+         *
+         * @return a negative number, zero, or a positive number as the first
+         * edge is less than, equal to, or greater than the second.
+         */
+        public static int compare(int weightA, int sourceA, int targetA, int weightB, int sourceB, int targetB) {
+            int result = weightA - weightB;
             if (result == 0) {
-                result = this.source.id - o.source.id;
+                result = sourceA - sourceB;
                 if (result == 0) {
-                    result = this.target.id - o.target.id;
+                    result = targetA - targetB;
                 }
             }
             return result;
         }
 
+        /**
+         * Appends this edge to the given builder.
+         *
+         * @param result the builder to append to.
+         * @return the builder.
+         */
+        public StringBuilder appendTo(StringBuilder result) {
+            return result.append(source.id).append(' ').append(target.id).append(" weight = ").append(weight);
+        }
+
         @Override
         public String toString() {
-            return source.id + " " + target.id + " weight = " + weight;
+            return appendTo(new StringBuilder()).toString();
         }
     }
 
@@ -135,34 +573,89 @@ public class MST {
 
         /**
          * Generates a DFS result based on the given adjacency list and starting
-         * node.
+         * node. Uses an explicit stack and a bitset instead of recursion, so
+         * it works on paths of any length.
          *
          * @param list the adjacency list of nodes in the graph.
          * @param initial the node index to start the search at.
          * @return the result of the search.
          */
         public static final DFSResult search(Node[] list, int initial) {
-            Node[] predcessors = new Node[list.length];
-            int nodesReached = search(null, list[initial], predcessors, new HashSet<Node>());
-            return new DFSResult(nodesReached, predcessors);
+            SearchEvent event = SearchEvent.start();
+            int n = list.length;
+            long[] seen = new long[(n + 63) >>> 6];
+            int[] predecessors = new int[n];
+            int[] stack = new int[n];
+            int[] cursor = new int[n];
+            Arrays.fill(predecessors, -1);
+            int depth = 0;
+            stack[depth++] = initial;
+            seen[initial >>> 6] |= 1L << initial;
+            int nodesReached = 1;
+            while (depth > 0) {
+                int current = stack[depth - 1];
+                ArrayList<Edge> edges = list[current].edges;
+                if (cursor[current] == edges.size()) {
+                    depth--;
+                    continue;
+                }
+                int target = edges.get(cursor[current]++).target.id;
+                if ((seen[target >>> 6] & (1L << target)) == 0) {
+                    seen[target >>> 6] |= 1L << target;
+                    predecessors[target] = current;
+                    stack[depth++] = target;
+                    nodesReached++;
+                }
+            }
+            event.finish(n, nodesReached, "LIST", "DEPTH");
+            return new DFSResult(nodesReached, toNodes(list, predecessors));
         }
 
-        private static final int search(Node previous, Node current, Node[] predcessors, HashSet<Node> seen) {
-            if (seen.contains(current)) {
-                return 0;
+        /**
+         * Generates a BFS result based on the given adjacency list and
+         * starting node.
+         *
+         * @param list the adjacency list of nodes in the graph.
+         * @param initial the node index to start the search at.
+         * @return the result of the search.
+         */
+        public static final DFSResult searchBreadthFirst(Node[] list, int initial) {
+            SearchEvent event = SearchEvent.start();
+            int n = list.length;
+            long[] seen = new long[(n + 63) >>> 6];
+            int[] predecessors = new int[n];
+            int[] queue = new int[n];
+            Arrays.fill(predecessors, -1);
+            int head = 0;
+            int tail = 0;
+            queue[tail++] = initial;
+            seen[initial >>> 6] |= 1L << initial;
+            while (head < tail) {
+                int current = queue[head++];
+                for (Edge edge : list[current].edges) {
+                    int target = edge.target.id;
+                    if ((seen[target >>> 6] & (1L << target)) == 0) {
+                        seen[target >>> 6] |= 1L << target;
+                        predecessors[target] = current;
+                        queue[tail++] = target;
+                    }
+                }
             }
-            seen.add(current);
-            predcessors[current.id] = previous;
-            int count = 1;
-            for (Edge vertex : current.edges) {
-                count += search(current, vertex.target, predcessors, seen);
+            event.finish(n, tail, "LIST", "BREADTH");
+            return new DFSResult(tail, toNodes(list, predecessors));
+        }
+
+        private static Node[] toNodes(Node[] list, int[] predecessors) {
+            Node[] nodes = new Node[predecessors.length];
+            for (int i = 0; i < predecessors.length; i++) {
+                nodes[i] = predecessors[i] < 0 ? null : list[predecessors[i]];
             }
-            return count;
+            return nodes;
         }
 
     }
 
-    public static class EdgeSortResult {
+    public static class EdgeSortResult implements Result {
 
         /**
          * The sorted list of edges.
@@ -173,22 +666,32 @@ public class MST {
          */
         public final EdgeSortResult.Type sortType;
         /**
-         * The time taken to sort the list.
+         * The time taken to extract and sort the list, in milliseconds.
          */
         public final long searchTime;
+        /**
+         * The cost of extracting the edges from the graph.
+         */
+        public final Stage extraction;
+        /**
+         * The cost of sorting the extracted edges.
+         */
+        public final Stage sort;
         /**
          * The total weight of the sorted edges.
          */
-        public final int totalWeight;
+        public final long totalWeight;
 
         // Marked as private to encourage use of static construction method.
-        private EdgeSortResult(Edge[] sortedList, Type sortType, long searchTime) {
+        private EdgeSortResult(Edge[] sortedList, Type sortType, Stage extraction, Stage sort) {
             // Given variables
             this.sortedList = sortedList;
             this.sortType = sortType;
-            this.searchTime = searchTime;
+            this.extraction = extraction;
+            this.sort = sort;
             // Computed variables 
-            int totalWeight = 0;
+            this.searchTime = extraction.plus(sort).millis();
+            long totalWeight = 0;
             for (int i = 0; i < sortedList.length; i++) {
                 totalWeight += sortedList[i].weight;
             }
@@ -202,12 +705,14 @@ public class MST {
          * @return the result of the sort.
          */
         public static EdgeSortResult doInsertionSortList(Graph input) {
-            Edge[] sortedList = new Edge[input.edges.length];
-            System.arraycopy(input.edges, 0, sortedList, 0, sortedList.length);
-            long searchTime = System.currentTimeMillis();
+            Stopwatch watch = Stopwatch.start();
+            Edge[] sortedList = extractList(input);
+            Stage extraction = watch.lap();
+            SortEvent event = SortEvent.start();
             doInsertionSortInternal(sortedList);
-            searchTime = System.currentTimeMillis() - searchTime;
-            return new EdgeSortResult(sortedList, Type.INSERTION_LIST, searchTime);
+            Stage sort = watch.lap();
+            event.finish(input.n, sortedList.length, Type.INSERTION_LIST.name());
+            return new EdgeSortResult(sortedList, Type.INSERTION_LIST, extraction, sort);
         }
 
         /**
@@ -217,12 +722,14 @@ public class MST {
          * @return the result of the sort.
          */
         public static EdgeSortResult doInsertionSortMatrix(Graph input) {
-            Edge[] sortedList = new Edge[input.edges.length];
-            System.arraycopy(input.edges, 0, sortedList, 0, sortedList.length);
-            long searchTime = System.currentTimeMillis();
+            Stopwatch watch = Stopwatch.start();
+            Edge[] sortedList = extractMatrix(input);
+            Stage extraction = watch.lap();
+            SortEvent event = SortEvent.start();
             doInsertionSortInternal(sortedList);
-            searchTime = System.currentTimeMillis() - searchTime;
-            return new EdgeSortResult(sortedList, Type.INSERTION_MATRIX, searchTime);
+            Stage sort = watch.lap();
+            event.finish(input.n, sortedList.length, Type.INSERTION_MATRIX.name());
+            return new EdgeSortResult(sortedList, Type.INSERTION_MATRIX, extraction, sort);
         }
 
         private static <T extends Comparable<T>> void doInsertionSortInternal(T[] list) {
@@ -245,10 +752,14 @@ public class MST {
          * @return the result of the sort.
          */
         public static EdgeSortResult doCountSortList(Graph input) {
-            long searchTime = System.currentTimeMillis();
-            Edge[] sortedList = doCountSortInternal(input.edges);
-            searchTime = System.currentTimeMillis() - searchTime;
-            return new EdgeSortResult(sortedList, Type.COUNT_LIST, searchTime);
+            Stopwatch watch = Stopwatch.start();
+            Edge[] edges = extractList(input);
+            Stage extraction = watch.lap();
+            SortEvent event = SortEvent.start();
+            Edge[] sortedList = doCountSortInternal(edges);
+            Stage sort = watch.lap();
+            event.finish(input.n, sortedList.length, Type.COUNT_LIST.name());
+            return new EdgeSortResult(sortedList, Type.COUNT_LIST, extraction, sort);
         }
 
         /**
@@ -258,13 +769,31 @@ public class MST {
          * @return the result of the sort.
          */
         public static EdgeSortResult doCountSortMatrix(Graph input) {
-            long searchTime = System.currentTimeMillis();
-            Edge[] sortedList = doCountSortInternal(input.edges);
-            searchTime = System.currentTimeMillis() - searchTime;
-            return new EdgeSortResult(sortedList, Type.COUNT_MATRIX, searchTime);
+            Stopwatch watch = Stopwatch.start();
+            Edge[] edges = extractMatrix(input);
+            Stage extraction = watch.lap();
+            SortEvent event = SortEvent.start();
+            Edge[] sortedList = doCountSortInternal(edges);
+            Stage sort = watch.lap();
+            event.finish(input.n, sortedList.length, Type.COUNT_MATRIX.name());
+            return new EdgeSortResult(sortedList, Type.COUNT_MATRIX, extraction, sort);
         }
 
+        /**
+         * Does a stable count sort on weight. Ties on weight break on the
+         * order the edges are given in, so edges not already in source and
+         * then target order are first counted into that order.
+         */
         private static Edge[] doCountSortInternal(Edge[] list) {
+            boolean ordered = true;
+            for (int i = 1; i < list.length && ordered; i++) {
+                ordered = list[i - 1].source.id < list[i].source.id
+                        || (list[i - 1].source.id == list[i].source.id && list[i - 1].target.id < list[i].target.id);
+            }
+            if (!ordered) {
+                list = doCountSortNodes(list, false);
+                list = doCountSortNodes(list, true);
+            }
             int maxWeight = 0;
             for (int i = 0; i < list.length; i++) {
                 maxWeight = maxWeight < list[i].weight ? list[i].weight : maxWeight;
@@ -284,6 +813,87 @@ public class MST {
             return b;
         }
 
+        /**
+         * Does a stable count sort on either the source or the target id.
+         */
+        private static Edge[] doCountSortNodes(Edge[] list, boolean bySource) {
+            int maxId = 0;
+            for (int i = 0; i < list.length; i++) {
+                maxId = Math.max(maxId, Math.max(list[i].source.id, list[i].target.id));
+            }
+            maxId += 1;
+            int c[] = new int[maxId];
+            for (int i = 0; i < list.length; i++) {
+                c[bySource ? list[i].source.id : list[i].target.id]++;
+            }
+            for (int i = 1; i < maxId; i++) {
+                c[i] += c[i - 1];
+            }
+            Edge b[] = new Edge[list.length];
+            for (int i = list.length - 1; i >= 0; i--) {
+                b[--c[bySource ? list[i].source.id : list[i].target.id]] = list[i];
+            }
+            return b;
+        }
+
+        /**
+         * Collects the edges of the given graph from the upper triangle of
+         * its adjacency matrix, one row at a time. Each row is read front to
+         * back, and the edges come out in the same order as
+         * {@link #extractList}, so the sorts see the same input from both.
+         * Large full matrices skip the empty stretches of each row with the
+         * vector kernels.
+         *
+         * @param input the given graph.
+         * @return the edges, in source and then target order.
+         */
+        static Edge[] extractMatrix(Graph input) {
+            AdjacencyMatrix matrix = input.matrix;
+            Node[] list = input.adjacencyList;
+            int n = input.n;
+            Edge[] edges = new Edge[input.edges.length];
+            int count = 0;
+            int[][] rows = input.adjacencyMatrix;
+            if (rows != null && KERNELS != null && n >= MSTResult.VECTOR_SCAN_NODES) {
+                for (int x = 0; x < n; x++) {
+                    int[] row = rows[x];
+                    for (int y = KERNELS.nonZero(row, x + 1, n); y >= 0; y = KERNELS.nonZero(row, y + 1, n)) {
+                        edges[count++] = new Edge(list[x], list[y], row[y]);
+                    }
+                }
+                return edges;
+            }
+            for (int x = 0; x < n; x++) {
+                for (int y = x + 1; y < n; y++) {
+                    int weight = matrix.get(x, y);
+                    if (weight != 0) {
+                        edges[count++] = new Edge(list[x], list[y], weight);
+                    }
+                }
+            }
+            return edges;
+        }
+
+        /**
+         * Collects the edges of the given graph from its adjacency list,
+         * keeping the copy of each edge held by its lower node.
+         *
+         * @param input the given graph.
+         * @return the edges, in source and then target order.
+         */
+        static Edge[] extractList(Graph input) {
+            Edge[] edges = new Edge[input.edges.length];
+            int count = 0;
+            for (Node node : input.adjacencyList) {
+                for (Edge edge : node.edges) {
+                    if (edge.target.id > node.id) {
+                        edges[count++] = edge;
+                    }
+                }
+            }
+            return edges;
+        }
+
         /**
          * Does an quicksort on the given graph.
          *
@@ -291,12 +901,14 @@ public class MST {
          * @return the result of the sort.
          */
         public static EdgeSortResult doQuickSortList(Graph input) {
-            Edge[] sortedList = new Edge[input.edges.length];
-            System.arraycopy(input.edges, 0, sortedList, 0, sortedList.length);
-            long searchTime = System.currentTimeMillis();
+            Stopwatch watch = Stopwatch.start();
+            Edge[] sortedList = extractList(input);
+            Stage extraction = watch.lap();
+            SortEvent event = SortEvent.start();
             doQuickSortInternal(sortedList, 0, sortedList.length - 1);
-            searchTime = System.currentTimeMillis() - searchTime;
-            return new EdgeSortResult(sortedList, Type.QUICK_LIST, searchTime);
+            Stage sort = watch.lap();
+            event.finish(input.n, sortedList.length, Type.QUICK_LIST.name());
+            return new EdgeSortResult(sortedList, Type.QUICK_LIST, extraction, sort);
         }
 
         /**
@@ -306,12 +918,14 @@ public class MST {
          * @return the result of the sort.
          */
         public static EdgeSortResult doQuickSortMatrix(Graph input) {
-            Edge[] sortedList = new Edge[input.edges.length];
-            System.arraycopy(input.edges, 0, sortedList, 0, sortedList.length);
-            long searchTime = System.currentTimeMillis();
+            Stopwatch watch = Stopwatch.start();
+            Edge[] sortedList = extractMatrix(input);
+            Stage extraction = watch.lap();
+            SortEvent event = SortEvent.start();
             doQuickSortInternal(sortedList, 0, sortedList.length - 1);
-            searchTime = System.currentTimeMillis() - searchTime;
-            return new EdgeSortResult(sortedList, Type.QUICK_MATRIX, searchTime);
+            Stage sort = watch.lap();
+            event.finish(input.n, sortedList.length, Type.QUICK_MATRIX.name());
+            return new EdgeSortResult(sortedList, Type.QUICK_MATRIX, extraction, sort);
         }
 
         private static <T extends Comparable<T>> void doQuickSortInternal(T[] list, int lowerIndex, int higherIndex) {
@@ -342,20 +956,323 @@ public class MST {
             }
         }
 
+        /**
+         * Does a parallel radix sort on the given graph.
+         *
+         * @param input the given graph.
+         * @return the result of the sort.
+         */
+        public static EdgeSortResult doRadixSortList(Graph input) {
+            return doRadixSort(input, Type.RADIX_LIST, false, Runtime.getRuntime().availableProcessors());
+        }
+
+        /**
+         * Does a parallel radix sort on the given graph.
+         *
+         * @param input the given graph.
+         * @return the result of the sort.
+         */
+        public static EdgeSortResult doRadixSortMatrix(Graph input) {
+            return doRadixSort(input, Type.RADIX_MATRIX, true, Runtime.getRuntime().availableProcessors());
+        }
+
+        private static EdgeSortResult doRadixSort(Graph input, Type sortType, boolean fromMatrix, int threads) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                Stopwatch watch = Stopwatch.start();
+                Edge[] edges = fromMatrix ? extractMatrix(input) : extractList(input);
+                Stage extraction = watch.lap();
+                SortEvent event = SortEvent.start();
+                Edge[] sortedList = pool.submit(() -> doRadixSortInternal(edges, threads)).join();
+                Stage sort = watch.lap();
+                event.finish(input.n, sortedList.length, sortType.name());
+                return new EdgeSortResult(sortedList, sortType, extraction, sort);
+            } finally {
+                pool.shutdown();
+            }
+        }
+
+        /**
+         * The number of key bits sorted on in each radix pass.
+         */
+        private static final int RADIX_BITS = 11;
+
+        /**
+         * Sorts the edges on packed (weight, source, target) keys with a least
+         * significant digit radix sort. Each pass counts digits per chunk in
+         * parallel, prefix sums the counts into per chunk offsets, then
+         * scatters every chunk in parallel, which keeps each pass stable. Must
+         * be run inside a ForkJoinPool so the parallel streams use it.
+         */
+        private static Edge[] doRadixSortInternal(Edge[] list, int threads) {
+            int size = list.length;
+            int max = 0;
+            for (int i = 0; i < size; i++) {
+                max = Math.max(max, Math.max(list[i].weight, list[i].target.id));
+            }
+            int bits = 32 - Integer.numberOfLeadingZeros(max);
+            if (bits * 3 > 63) {
+                // Too wide to pack, fall back to a comparison sort.
+                Edge[] sortedList = Arrays.copyOf(list, size);
+                Arrays.parallelSort(sortedList);
+                return sortedList;
+            }
+            long[] keys = new long[size];
+            int[] indices = new int[size];
+            IntStream.range(0, size).parallel().forEach(i -> {
+                keys[i] = ((long) list[i].weight << (bits * 2)) | ((long) list[i].source.id << bits) | list[i].target.id;
+                indices[i] = i;
+            });
+            long[][] keyBuffers = {keys, new long[size]};
+            int[][] indexBuffers = {indices, new int[size]};
+            int chunks = Math.max(1, Math.min(threads * 4, size / 4096));
+            int chunkSize = (size + chunks - 1) / chunks;
+            int buckets = 1 << RADIX_BITS;
+            int[][] counts = new int[chunks][buckets];
+            int pass = 0;
+            for (int shift = 0; shift < bits * 3; shift += RADIX_BITS, pass++) {
+                final int digitShift = shift;
+                final long[] from = keyBuffers[pass & 1];
+                final long[] to = keyBuffers[(pass + 1) & 1];
+                final int[] fromIndices = indexBuffers[pass & 1];
+                final int[] toIndices = indexBuffers[(pass + 1) & 1];
+                IntStream.range(0, chunks).parallel().forEach(c -> {
+                    int[] count = counts[c];
+                    Arrays.fill(count, 0);
+                    for (int i = c * chunkSize, end = Math.min(size, i + chunkSize); i < end; i++) {
+                        count[(int) (from[i] >>> digitShift) & (buckets - 1)]++;
+                    }
+                });
+                int offset = 0;
+                for (int digit = 0; digit < buckets; digit++) {
+                    for (int c = 0; c < chunks; c++) {
+                        int count = counts[c][digit];
+                        counts[c][digit] = offset;
+                        offset += count;
+                    }
+                }
+                IntStream.range(0, chunks).parallel().forEach(c -> {
+                    int[] position = counts[c];
+                    for (int i = c * chunkSize, end = Math.min(size, i + chunkSize); i < end; i++) {
+                        int index = position[(int) (from[i] >>> digitShift) & (buckets - 1)]++;
+                        to[index] = from[i];
+                        toIndices[index] = fromIndices[i];
+                    }
+                });
+            }
+            int[] sortedIndices = indexBuffers[pass & 1];
+            Edge[] sortedList = new Edge[size];
+            IntStream.range(0, size).parallel().forEach(i -> sortedList[i] = list[sortedIndices[i]]);
+            return sortedList;
+        }
+
+        /**
+         * Does a parallel introsort on the given graph.
+         *
+         * @param input the given graph.
+         * @return the result of the sort.
+         */
+        public static EdgeSortResult doIntroSortList(Graph input) {
+            return doIntroSort(input, Type.INTRO_LIST, false, Runtime.getRuntime().availableProcessors());
+        }
+
+        /**
+         * Does a parallel introsort on the given graph.
+         *
+         * @param input the given graph.
+         * @return the result of the sort.
+         */
+        public static EdgeSortResult doIntroSortMatrix(Graph input) {
+            return doIntroSort(input, Type.INTRO_MATRIX, true, Runtime.getRuntime().availableProcessors());
+        }
+
+        private static EdgeSortResult doIntroSort(Graph input, Type sortType, boolean fromMatrix, int threads) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                Stopwatch watch = Stopwatch.start();
+                Edge[] sortedList = fromMatrix ? extractMatrix(input) : extractList(input);
+                Stage extraction = watch.lap();
+                SortEvent event = SortEvent.start();
+                int depth = 2 * (31 - Integer.numberOfLeadingZeros(Math.max(1, sortedList.length)));
+                pool.invoke(new IntroSortTask<Edge>(sortedList, 0, sortedList.length, depth));
+                Stage sort = watch.lap();
+                event.finish(input.n, sortedList.length, sortType.name());
+                return new EdgeSortResult(sortedList, sortType, extraction, sort);
+            } finally {
+                pool.shutdown();
+            }
+        }
+
+        /**
+         * Sorts the range [low, high) of a list with a quicksort that forks
+         * both halves of large ranges, switches to a heapsort once it has
+         * partitioned too many times and finishes small ranges with an
+         * insertion sort. This bounds the time at O(n log n) no matter how
+         * the pivots fall.
+         */
+        private static class IntroSortTask<T extends Comparable<T>> extends RecursiveAction {
+
+            private static final long serialVersionUID = 1L;
+            /**
+             * Ranges at most this long are insertion sorted.
+             */
+            private static final int INSERTION_CUTOFF = 16;
+            /**
+             * Ranges longer than this are split into parallel tasks.
+             */
+            private static final int PARALLEL_CUTOFF = 8192;
+
+            private final T[] list;
+            private final int low;
+            private final int high;
+            private final int depth;
+
+            IntroSortTask(T[] list, int low, int high, int depth) {
+                this.list = list;
+                this.low = low;
+                this.high = high;
+                this.depth = depth;
+            }
+
+            @Override
+            protected void compute() {
+                sort(low, high, depth);
+            }
+
+            private void sort(int low, int high, int depth) {
+                while (high - low > INSERTION_CUTOFF) {
+                    if (depth == 0) {
+                        heapSort(low, high);
+                        return;
+                    }
+                    depth--;
+                    int middle = partition(low, high);
+                    if (high - low > PARALLEL_CUTOFF) {
+                        invokeAll(new IntroSortTask<T>(list, low, middle, depth), new IntroSortTask<T>(list, middle, high, depth));
+                        return;
+                    }
+                    // Recurse into the smaller side to bound the stack depth.
+                    if (middle - low < high - middle) {
+                        sort(low, middle, depth);
+                        low = middle;
+                    } else {
+                        sort(middle, high, depth);
+                        high = middle;
+                    }
+                }
+                insertionSort(low, high);
+            }
+
+            /**
+             * Moves the median of the first, middle and last elements to the
+             * front and partitions around it.
+             *
+             * @return the start of the upper part, strictly between low and
+             * high.
+             */
+            private int partition(int low, int high) {
+                int middle = low + (high - low) / 2;
+                if (list[middle].compareTo(list[low]) < 0) {
+                    swap(middle, low);
+                }
+                if (list[high - 1].compareTo(list[low]) < 0) {
+                    swap(high - 1, low);
+                }
+                if (list[high - 1].compareTo(list[middle]) < 0) {
+                    swap(high - 1, middle);
+                }
+                swap(low, middle);
+                T pivot = list[low];
+                int i = low - 1;
+                int j = high;
+                while (true) {
+                    do {
+                        i++;
+                    } while (list[i].compareTo(pivot) < 0);
+                    do {
+                        j--;
+                    } while (list[j].compareTo(pivot) > 0);
+                    if (i >= j) {
+                        return j + 1;
+                    }
+                    swap(i, j);
+                }
+            }
+
+            private void heapSort(int low, int high) {
+                int size = high - low;
+                for (int i = size / 2 - 1; i >= 0; i--) {
+                    siftDown(low, i, size);
+                }
+                for (int end = size - 1; end > 0; end--) {
+                    swap(low, low + end);
+                    siftDown(low, 0, end);
+                }
+            }
+
+            private void siftDown(int low, int index, int size) {
+                T value = list[low + index];
+                while (true) {
+                    int child = 2 * index + 1;
+                    if (child >= size) {
+                        break;
+                    }
+                    if (child + 1 < size && list[low + child + 1].compareTo(list[low + child]) > 0) {
+                        child++;
+                    }
+                    if (list[low + child].compareTo(value) <= 0) {
+                        break;
+                    }
+                    list[low + index] = list[low + child];
+                    index = child;
+                }
+                list[low + index] = value;
+            }
+
+            private void insertionSort(int low, int high) {
+                for (int i = low + 1; i < high; i++) {
+                    T value = list[i];
+                    int j = i;
+                    while (j > low && value.compareTo(list[j - 1]) < 0) {
+                        list[j] = list[j - 1];
+                        j--;
+                    }
+                    list[j] = value;
+                }
+            }
+
+            private void swap(int i, int j) {
+                T temp = list[i];
+                list[i] = list[j];
+                list[j] = temp;
+            }
+        }
+
         @Override
-        public String toString() {
-            String result = "===================================\n";
-            result += "SORTED EDGES WITH " + sortType.input + " USING " + sortType.name + "\n";
+        public StringBuilder appendTo(StringBuilder result) {
+            result.append("===================================\n");
+            result.append("SORTED EDGES WITH ").append(sortType.input).append(" USING ").append(sortType.name).append('\n');
             if (sortedList.length <= 10) {
                 for (int i = 0; i < sortedList.length; i++) {
-                    result += sortedList[i].toString() + "\n";
+                    sortedList[i].appendTo(result).append('\n');
                 }
             }
-            result += "Total Weight = " + totalWeight + "\n";
-            result += "Runtime: " + searchTime + " milliseconds\n";
+            result.append("Total Weight = ").append(totalWeight).append('\n');
+            result.append("Runtime including extraction: ").append(searchTime).append(" milliseconds\n");
             return result;
         }
 
+        @Override
+        public void addMetrics(Metrics metrics) {
+            metrics.add("extract", sortType.name(), extraction, -1, -1, -1);
+            metrics.add("sort", sortType.name(), sort, -1, -1, totalWeight);
+        }
+
+        @Override
+        public String toString() {
+            return appendTo(new StringBuilder()).toString();
+        }
+
         public static enum Type {
 
             INSERTION_LIST("LIST", "INSERTION SORT"),
@@ -363,7 +1280,11 @@ public class MST {
             QUICK_LIST("LIST", "QUICKSORT"),
             INSERTION_MATRIX("MATRIX", "INSERTION SORT"),
             COUNT_MATRIX("MATRIX", "COUNT SORT"),
-            QUICK_MATRIX("MATRIX", "QUICKSORT");
+            QUICK_MATRIX("MATRIX", "QUICKSORT"),
+            RADIX_LIST("LIST", "PARALLEL RADIX SORT"),
+            RADIX_MATRIX("MATRIX", "PARALLEL RADIX SORT"),
+            INTRO_LIST("LIST", "PARALLEL INTROSORT"),
+            INTRO_MATRIX("MATRIX", "PARALLEL INTROSORT");
 
             public final String input;
             public final String name;
@@ -376,122 +1297,5261 @@ public class MST {
 
     }
 
-    public static class Graph {
+    public static class DisjointSet {
 
-        public final int n;
-        public final int seed;
-        public final double p;
-        public final int totalWeight;
-        public final long generationTime;
+        /**
+         * The parent of each element. An element is a root if it is its own
+         * parent.
+         */
+        private final int[] parent;
+        /**
+         * The upper bound on the height of the tree rooted at each element.
+         */
+        private final byte[] rank;
+        /**
+         * The number of disjoint sets remaining.
+         */
+        private int count;
+
+        public DisjointSet(int n) {
+            this.parent = new int[n];
+            this.rank = new byte[n];
+            this.count = n;
+            for (int i = 0; i < n; i++) {
+                parent[i] = i;
+            }
+        }
+
+        /**
+         * Finds the root of the set containing the given element, compressing
+         * the path walked along the way.
+         *
+         * @param x the element to find.
+         * @return the root of the set containing the element.
+         */
+        public int find(int x) {
+            int root = x;
+            while (parent[root] != root) {
+                root = parent[root];
+            }
+            while (parent[x] != root) {
+                int next = parent[x];
+                parent[x] = root;
+                x = next;
+            }
+            return root;
+        }
+
+        /**
+         * Merges the sets containing the two given elements.
+         *
+         * @param x the first element.
+         * @param y the second element.
+         * @return true if the elements were in different sets, false if they
+         * were already joined.
+         */
+        public boolean union(int x, int y) {
+            x = find(x);
+            y = find(y);
+            if (x == y) {
+                return false;
+            }
+            if (rank[x] < rank[y]) {
+                parent[x] = y;
+            } else if (rank[x] > rank[y]) {
+                parent[y] = x;
+            } else {
+                parent[y] = x;
+                rank[x]++;
+            }
+            count--;
+            return true;
+        }
+
+        /**
+         * @return the number of disjoint sets remaining.
+         */
+        public int count() {
+            return count;
+        }
+    }
+
+    public static class ConcurrentDisjointSet {
+
+        /**
+         * The parent of each element. An element is a root if it is its own
+         * parent. Roots are only ever linked under larger roots, so
+         * concurrent unions cannot form a cycle.
+         */
+        private final AtomicIntegerArray parent;
+
+        public ConcurrentDisjointSet(int n) {
+            this.parent = new AtomicIntegerArray(n);
+            for (int i = 0; i < n; i++) {
+                parent.set(i, i);
+            }
+        }
+
+        /**
+         * Finds the root of the set containing the given element, halving
+         * the path walked along the way. Safe to call concurrently.
+         *
+         * @param x the element to find.
+         * @return the root of the set containing the element.
+         */
+        public int find(int x) {
+            int next = parent.get(x);
+            while (next != x) {
+                int grandparent = parent.get(next);
+                parent.compareAndSet(x, next, grandparent);
+                x = next;
+                next = parent.get(x);
+            }
+            return x;
+        }
+
+        /**
+         * Merges the sets containing the two given elements. Safe to call
+         * concurrently.
+         *
+         * @param x the first element.
+         * @param y the second element.
+         * @return true if this call joined the sets, false if they were
+         * already joined.
+         */
+        public boolean union(int x, int y) {
+            while (true) {
+                x = find(x);
+                y = find(y);
+                if (x == y) {
+                    return false;
+                }
+                if (x > y) {
+                    int temp = x;
+                    x = y;
+                    y = temp;
+                }
+                if (parent.compareAndSet(x, x, y)) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    public static class MSTResult implements Result {
+
+        /**
+         * The fewest nodes for which the dense Prim scan and the matrix edge
+         * scan use the vector kernels. Below this the scalar loops are as
+         * fast.
+         */
+        static final int VECTOR_SCAN_NODES = 2048;
+
+        /**
+         * The edges of the minimum spanning tree in the order they were
+         * accepted.
+         */
         public final Edge[] edges;
-        public final int[][] adjacencyMatrix;
-        public final Node[] adjacencyList;
-        public final DFSResult searchResult;
+        /**
+         * The algorithm used to build the tree.
+         */
+        public final MSTResult.Type mstType;
+        /**
+         * The sort result the tree was built from, or null if the algorithm
+         * does not sort the edges.
+         */
+        public final EdgeSortResult sortResult;
+        /**
+         * The time taken to build the tree, not including any sort, in
+         * milliseconds.
+         */
+        public final long runtime;
+        /**
+         * The cost of building the tree, not including any sort.
+         */
+        public final Stage stage;
+        /**
+         * The total weight of the tree.
+         */
+        public final long totalWeight;
 
         // Marked as private to encourage use of static construction method.
-        private Graph(int n, int seed, double p, int totalWeight, long generationTime, Edge[] edges, int[][] adjacencyMatrix, Node[] adjacencyList, DFSResult searchResult) {
-            this.n = n;
-            this.seed = seed;
-            this.p = p;
-            this.totalWeight = totalWeight;
-            this.generationTime = generationTime;
+        private MSTResult(Edge[] edges, Type mstType, EdgeSortResult sortResult, Stage stage) {
+            // Given variables
             this.edges = edges;
-            this.adjacencyMatrix = adjacencyMatrix;
-            this.adjacencyList = adjacencyList;
-            this.searchResult = searchResult;
+            this.mstType = mstType;
+            this.sortResult = sortResult;
+            this.stage = stage;
+            // Computed variables
+            this.runtime = stage.millis();
+            long totalWeight = 0;
+            for (int i = 0; i < edges.length; i++) {
+                totalWeight += edges[i].weight;
+            }
+            this.totalWeight = totalWeight;
         }
 
         /**
-         * Generates a graph based on the given parameters.
+         * Runs Kruskal's algorithm over the given sorted edges, stopping once
+         * n - 1 edges have been accepted.
          *
-         * @param n the length and width of the graph.
-         * @param seed the seed for the random.
-         * @param p the probability for an edge to be made between two nodes.
-         * @return the generated graph.
+         * @param n the number of nodes in the graph.
+         * @param sortResult the edges of the graph, sorted by weight.
+         * @return the minimum spanning tree.
          */
-        public static Graph generate(int n, int seed, double p) {
-            Random randomA = new Random(seed);
-            Random randomB = new Random(seed * 2);
-            int[][] matrix = new int[n][n];
-            Node[] list = new Node[n];
-            DFSResult searchResult;
-            int edgeCount;
-            int totalWeight;
-
-            long generationTime = System.currentTimeMillis();
-            do {
-                /**
-                 * Generate the graph
-                 */
-                edgeCount = 0;
-                totalWeight = 0;
-                for (int i = 0; i < n; i++) {
-                    list[i] = new Node(i);
+        public static MSTResult doKruskal(int n, EdgeSortResult sortResult) {
+            Stopwatch watch = Stopwatch.start();
+            Edge[] sortedList = sortResult.sortedList;
+            Edge[] tree = new Edge[n - 1];
+            DisjointSet sets = new DisjointSet(n);
+            int accepted = 0;
+            for (int i = 0; i < sortedList.length && accepted < tree.length; i++) {
+                Edge edge = sortedList[i];
+                if (sets.union(edge.source.id, edge.target.id)) {
+                    tree[accepted++] = edge;
                 }
-                for (int x = 0; x < n; x++) {
-                    for (int y = x + 1; y < n; y++) {
-                        matrix[x][y] = 0;
-                        matrix[y][x] = 0;
-                        if (randomA.nextDouble() <= p) {
-                            int weight = randomB.nextInt(n) + 1;
-                            totalWeight += weight;
-                            matrix[x][y] = weight;
-                            matrix[y][x] = weight;
-                            list[x].addNeighbor(list[y], weight);
-                            list[y].addNeighbor(list[x], weight);
-                            edgeCount++;
+            }
+            return new MSTResult(trim(tree, accepted), Type.KRUSKAL, sortResult, watch.lap());
+        }
+
+        /**
+         * Runs Filter-Kruskal over the edges of the given graph. The edges
+         * are split around a sampled pivot and the light side is solved
+         * first. The heavy side is then filtered down to the edges that still
+         * join two components before it is split in turn, so on dense graphs
+         * most heavy edges are dropped without ever being sorted. Builds the
+         * same tree as {@link #doKruskal}, in the same order.
+         *
+         * @param input the given graph.
+         * @return the minimum spanning tree.
+         */
+        public static MSTResult doFilterKruskal(Graph input) {
+            Stopwatch watch = Stopwatch.start();
+            FilterKruskal state = new FilterKruskal(input.n);
+            Edge[] edges = input.edges.clone();
+            state.run(edges, 0, edges.length);
+            return new MSTResult(trim(state.tree, state.accepted), Type.FILTER_KRUSKAL, null, watch.lap());
+        }
+
+        /**
+         * The state of a Filter-Kruskal run.
+         */
+        private static class FilterKruskal {
+
+            /**
+             * Ranges this small are sorted and scanned directly.
+             */
+            private static final int THRESHOLD = 256;
+
+            private final DisjointSet sets;
+            private final Edge[] tree;
+            // A fixed seed keeps the pivots, and so the work, repeatable.
+            private final SplittableRandom random = new SplittableRandom(0);
+            private int accepted;
+
+            private FilterKruskal(int n) {
+                this.sets = new DisjointSet(n);
+                this.tree = new Edge[n - 1];
+            }
+
+            private void run(Edge[] edges, int lower, int upper) {
+                // Recurse on the light side, loop on the heavy side.
+                while (upper - lower > THRESHOLD && accepted < tree.length) {
+                    Edge pivot = pivot(edges, lower, upper);
+                    int split = lower;
+                    for (int i = lower; i < upper; i++) {
+                        if (edges[i].compareTo(pivot) <= 0) {
+                            swap(edges, i, split++);
                         }
                     }
+                    if (split == upper) {
+                        // The pivot was the heaviest edge, sort the range.
+                        break;
+                    }
+                    run(edges, lower, split);
+                    lower = split;
+                    upper = filter(edges, split, upper);
+                }
+                if (accepted == tree.length) {
+                    return;
+                }
+                Arrays.sort(edges, lower, upper);
+                for (int i = lower; i < upper && accepted < tree.length; i++) {
+                    if (sets.union(edges[i].source.id, edges[i].target.id)) {
+                        tree[accepted++] = edges[i];
+                    }
                 }
-                /**
-                 * DFS to ensure it's connected, restarting the process if it
-                 * isn't.
-                 */
-                searchResult = DFSResult.search(list, 0);
-            } while (searchResult.nodesReached != n);
-            generationTime = System.currentTimeMillis() - generationTime;
+            }
+
             /**
-             * Get the edges and total weight of the created graph
+             * @return the median of three edges sampled from the range.
              */
-            Edge[] edges = new Edge[edgeCount];
-            edgeCount = 0;
-            for (int x = 0; x < n; x++) {
-                for (int y = x + 1; y < n; y++) {
-                    if (matrix[x][y] != 0) {
-                        edges[edgeCount++] = new Edge(list[x], list[y], matrix[x][y]);
+            private Edge pivot(Edge[] edges, int lower, int upper) {
+                Edge a = edges[random.nextInt(lower, upper)];
+                Edge b = edges[random.nextInt(lower, upper)];
+                Edge c = edges[random.nextInt(lower, upper)];
+                if (a.compareTo(b) > 0) {
+                    Edge temp = a;
+                    a = b;
+                    b = temp;
+                }
+                return c.compareTo(a) <= 0 ? a : c.compareTo(b) >= 0 ? b : c;
+            }
+
+            /**
+             * Moves the edges that still join two components to the front of
+             * the range.
+             *
+             * @return the end of the kept edges.
+             */
+            private int filter(Edge[] edges, int lower, int upper) {
+                int kept = lower;
+                for (int i = lower; i < upper; i++) {
+                    if (sets.find(edges[i].source.id) != sets.find(edges[i].target.id)) {
+                        edges[kept++] = edges[i];
                     }
                 }
+                return kept;
+            }
+
+            private static void swap(Edge[] edges, int i, int j) {
+                Edge temp = edges[i];
+                edges[i] = edges[j];
+                edges[j] = temp;
             }
-            return new Graph(n, seed, p, totalWeight, generationTime, edges, matrix, list, searchResult);
         }
 
-        @Override
-        public String toString() {
-            String result = "TEST: n=" + n + ", seed=" + seed + ", p=" + p + "\n";
-            result += "Time to generate the graph: " + generationTime + " milliseconds\n\n";
-            if (n <= 10) {
-                result += "The graph as an adjacency matrix:\n\n";
-                for (int x = 0; x < n; x++) {
-                    for (int y = 0; y < n; y++) {
-                        result += " " + adjacencyMatrix[x][y] + "  ";
+        /**
+         * Runs Prim's algorithm over the adjacency list of the given graph
+         * using an indexed binary heap, for O(m log n).
+         *
+         * @param input the given graph.
+         * @return the minimum spanning tree.
+         */
+        public static MSTResult doPrimList(Graph input) {
+            Stopwatch watch = Stopwatch.start();
+            Node[] list = input.adjacencyList;
+            int n = list.length;
+            Edge[] tree = new Edge[n - 1];
+            boolean[] inTree = new boolean[n];
+            IndexedHeap heap = new IndexedHeap(n);
+            int accepted = 0;
+            int current = 0;
+            while (true) {
+                inTree[current] = true;
+                for (Edge edge : list[current].edges) {
+                    int target = edge.target.id;
+                    if (!inTree[target]) {
+                        heap.offer(target, edge.weight, current);
                     }
-                    result += "\n\n";
                 }
-                result += "The graph as an adjacency list:\n";
-                for (Node node : adjacencyList) {
-                    result += node.toString() + "\n";
+                if (heap.isEmpty()) {
+                    break;
                 }
-                result += "\nDepth-First Search:\n";
-                result += "Vertices:\n";
-                for (int i = 0; i < n; i++) {
-                    result += " " + i;
+                current = heap.poll();
+                tree[accepted++] = canonicalEdge(list, heap.from(current), current, heap.weight(current));
+            }
+            return new MSTResult(trim(tree, accepted), Type.PRIM_LIST, null, watch.lap());
+        }
+
+        /**
+         * Runs Prim's algorithm over the adjacency matrix of the given graph
+         * using an array scan, for O(n^2) without sorting any edges.
+         *
+         * @param input the given graph.
+         * @return the minimum spanning tree.
+         */
+        public static MSTResult doPrimMatrix(Graph input) {
+            Stopwatch watch = Stopwatch.start();
+            AdjacencyMatrix matrix = input.matrix;
+            int n = matrix.size();
+            Edge[] tree = new Edge[n - 1];
+            boolean[] inTree = new boolean[n];
+            int[] keyWeight = new int[n];
+            int[] keyFrom = new int[n];
+            Arrays.fill(keyWeight, Integer.MAX_VALUE);
+            Arrays.fill(keyFrom, -1);
+            Kernels kernels = n >= VECTOR_SCAN_NODES ? KERNELS : null;
+            int accepted = 0;
+            int current = 0;
+            while (current >= 0) {
+                inTree[current] = true;
+                int next = kernels == null
+                        ? relaxAndSelect(matrix, current, inTree, keyWeight, keyFrom)
+                        : relaxAndSelect(kernels, input.adjacencyMatrix, matrix, current, inTree, keyWeight, keyFrom);
+                if (next >= 0) {
+                    tree[accepted++] = canonicalEdge(input.adjacencyList, keyFrom[next], next, keyWeight[next]);
                 }
-                result += "\nPredecessors:\n";
-                for (int i = 0; i < n; i++) {
-                    result += searchResult.predecessors[i] == null ? "-1" : " " + searchResult.predecessors[i].id;
+                current = next;
+            }
+            return new MSTResult(trim(tree, accepted), Type.PRIM_MATRIX, null, watch.lap());
+        }
+
+        /**
+         * Relaxes the keys of the nodes outside the tree through the row of
+         * the node just added, picking the lightest key in the same pass.
+         *
+         * @return the node with the lightest key, or -1 if none is reachable.
+         */
+        private static int relaxAndSelect(AdjacencyMatrix matrix, int current, boolean[] inTree, int[] keyWeight, int[] keyFrom) {
+            int next = -1;
+            for (int v = 0; v < keyWeight.length; v++) {
+                if (inTree[v]) {
+                    continue;
+                }
+                int weight = matrix.get(current, v);
+                if (weight != 0 && isLighter(weight, current, v, keyWeight[v], keyFrom[v])) {
+                    keyWeight[v] = weight;
+                    keyFrom[v] = current;
+                }
+                if (keyFrom[v] >= 0 && (next < 0 || isLighter(keyWeight[v], keyFrom[v], v, keyWeight[next], keyFrom[next], next))) {
+                    next = v;
+                }
+            }
+            return next;
+        }
+
+        /**
+         * Relaxes the keys like {@link #relaxAndSelect(AdjacencyMatrix, int,
+         * boolean[], int[], int[])}, then finds the lightest key with the
+         * vector kernels and breaks ties on weight among the nodes that share
+         * it the same way as Kruskal.
+         *
+         * @return the node with the lightest key, or -1 if none is reachable.
+         */
+        private static int relaxAndSelect(Kernels kernels, int[][] rows, AdjacencyMatrix matrix, int current, boolean[] inTree,
+                int[] keyWeight, int[] keyFrom) {
+            int n = keyWeight.length;
+            // Weights are at most n, so this takes current out of the scan.
+            keyWeight[current] = Integer.MAX_VALUE;
+            int[] row = rows == null ? null : rows[current];
+            for (int v = 0; v < n; v++) {
+                if (inTree[v]) {
+                    continue;
+                }
+                int weight = row == null ? matrix.get(current, v) : row[v];
+                if (weight != 0 && isLighter(weight, current, v, keyWeight[v], keyFrom[v])) {
+                    keyWeight[v] = weight;
+                    keyFrom[v] = current;
+                }
+            }
+            int lightest = kernels.min(keyWeight, 0, n);
+            if (lightest == Integer.MAX_VALUE) {
+                return -1;
+            }
+            int next = -1;
+            for (int v = kernels.indexOf(keyWeight, 0, n, lightest); v >= 0; v = kernels.indexOf(keyWeight, v + 1, n, lightest)) {
+                if (next < 0 || isLighter(keyWeight[v], keyFrom[v], v, keyWeight[next], keyFrom[next], next)) {
+                    next = v;
+                }
+            }
+            return next;
+        }
+
+        /**
+         * Runs Boruvka's algorithm over the edges of the given graph, finding
+         * the lightest edge out of every component in parallel and merging
+         * the components through a concurrent disjoint set. The tree is
+         * returned in sorted order, matching {@link #doKruskal}.
+         *
+         * @param input the given graph.
+         * @param threads the number of threads to search the edges with.
+         * @return the minimum spanning tree.
+         */
+        public static MSTResult doBoruvka(Graph input, int threads) {
+            if (threads < 1) {
+                throw new IllegalArgumentException("threads must be greater than 0");
+            }
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                Stopwatch watch = Stopwatch.start();
+                Edge[] tree = pool.submit(() -> doBoruvkaInternal(input.n, input.edges)).join();
+                return new MSTResult(tree, Type.BORUVKA, null, watch.lap());
+            } finally {
+                pool.shutdown();
+            }
+        }
+
+        // Must be run inside a ForkJoinPool so the parallel streams use it.
+        private static Edge[] doBoruvkaInternal(int n, Edge[] edges) {
+            ConcurrentDisjointSet sets = new ConcurrentDisjointSet(n);
+            int[] component = new int[n];
+            AtomicIntegerArray lightest = new AtomicIntegerArray(n);
+            Edge[] tree = new Edge[n - 1];
+            AtomicInteger accepted = new AtomicInteger();
+            int[] active = IntStream.range(0, edges.length).toArray();
+            while (active.length > 0) {
+                IntStream.range(0, n).parallel().forEach(v -> {
+                    component[v] = sets.find(v);
+                    lightest.set(v, -1);
+                });
+                // Edges inside a component can never be used again.
+                active = IntStream.of(active).parallel()
+                        .filter(i -> component[edges[i].source.id] != component[edges[i].target.id])
+                        .toArray();
+                IntStream.of(active).parallel().forEach(i -> {
+                    offerLightest(lightest, component[edges[i].source.id], i, edges);
+                    offerLightest(lightest, component[edges[i].target.id], i, edges);
+                });
+                IntStream.range(0, n).parallel().forEach(c -> {
+                    int i = lightest.get(c);
+                    // Two components may pick the same edge, only one union wins.
+                    if (i >= 0 && sets.union(edges[i].source.id, edges[i].target.id)) {
+                        tree[accepted.getAndIncrement()] = edges[i];
+                    }
+                });
+            }
+            Edge[] result = trim(tree, accepted.get());
+            Arrays.parallelSort(result);
+            return result;
+        }
+
+        private static void offerLightest(AtomicIntegerArray lightest, int component, int index, Edge[] edges) {
+            int current = lightest.get(component);
+            while (current < 0 || edges[index].compareTo(edges[current]) < 0) {
+                if (lightest.compareAndSet(component, current, index)) {
+                    return;
+                }
+                current = lightest.get(component);
+            }
+        }
+
+        /**
+         * Checks if the edge (from, v) is lighter than the edge (keyFrom, v)
+         * using the total order of {@link Edge#compareTo(Edge)}, so every
+         * algorithm agrees on the tree when weights tie. A negative keyFrom
+         * means there is no edge yet.
+         */
+        private static boolean isLighter(int weight, int from, int v, int keyWeight, int keyFrom) {
+            return keyFrom < 0 || isLighter(weight, from, v, keyWeight, keyFrom, v);
+        }
+
+        private static boolean isLighter(int weightA, int fromA, int a, int weightB, int fromB, int b) {
+            return Edge.compare(weightA, Math.min(fromA, a), Math.max(fromA, a),
+                    weightB, Math.min(fromB, b), Math.max(fromB, b)) < 0;
+        }
+
+        private static Edge canonicalEdge(Node[] list, int x, int y, int weight) {
+            return x < y ? new Edge(list[x], list[y], weight) : new Edge(list[y], list[x], weight);
+        }
+
+        private static Edge[] trim(Edge[] tree, int accepted) {
+            if (accepted == tree.length) {
+                return tree;
+            }
+            Edge[] forest = new Edge[accepted];
+            System.arraycopy(tree, 0, forest, 0, accepted);
+            return forest;
+        }
+
+        @Override
+        public StringBuilder appendTo(StringBuilder result) {
+            result.append("===================================\n");
+            if (sortResult == null) {
+                result.append(mstType.name).append(" WITH ").append(mstType.input).append('\n');
+            } else {
+                result.append(mstType.name).append(" WITH ").append(sortResult.sortType.input)
+                        .append(" USING ").append(sortResult.sortType.name).append('\n');
+            }
+            if (edges.length <= 10) {
+                for (int i = 0; i < edges.length; i++) {
+                    edges[i].appendTo(result).append('\n');
                 }
             }
+            result.append("Total Weight = ").append(totalWeight).append('\n');
+            result.append("Runtime: ").append(runtime).append(" milliseconds\n");
+            if (sortResult != null) {
+                result.append("Runtime including sort: ").append(sortResult.searchTime + runtime).append(" milliseconds\n");
+            }
             return result;
         }
+
+        @Override
+        public void addMetrics(Metrics metrics) {
+            String type = sortResult == null ? mstType.name() : mstType.name() + ":" + sortResult.sortType.name();
+            metrics.add("mst", type, stage, -1, -1, totalWeight);
+        }
+
+        @Override
+        public String toString() {
+            return appendTo(new StringBuilder()).toString();
+        }
+
+        public static enum Type {
+
+            KRUSKAL("EDGES", "KRUSKAL"),
+            PRIM_LIST("LIST", "PRIM"),
+            PRIM_MATRIX("MATRIX", "PRIM"),
+            BORUVKA("EDGES", "PARALLEL BORUVKA"),
+            FILTER_KRUSKAL("EDGES", "FILTER-KRUSKAL");
+
+            public final String input;
+            public final String name;
+
+            private Type(String input, String name) {
+                this.input = input;
+                this.name = name;
+            }
+        }
+
+        /**
+         * A binary min heap over node ids supporting decrease-key, keyed on
+         * the lightest known edge into each node.
+         */
+        private static class IndexedHeap {
+
+            private final int[] heap;
+            private final int[] position;
+            private final int[] weight;
+            private final int[] from;
+            private int size;
+
+            IndexedHeap(int n) {
+                this.heap = new int[n];
+                this.position = new int[n];
+                this.weight = new int[n];
+                this.from = new int[n];
+                Arrays.fill(position, -1);
+                Arrays.fill(from, -1);
+            }
+
+            boolean isEmpty() {
+                return size == 0;
+            }
+
+            int weight(int node) {
+                return weight[node];
+            }
+
+            int from(int node) {
+                return from[node];
+            }
+
+            /**
+             * Inserts the node, or lowers its key if the given edge is
+             * lighter than the one it already has.
+             */
+            void offer(int node, int edgeWeight, int edgeFrom) {
+                if (!isLighter(edgeWeight, edgeFrom, node, weight[node], from[node])) {
+                    return;
+                }
+                weight[node] = edgeWeight;
+                from[node] = edgeFrom;
+                if (position[node] < 0) {
+                    position[node] = size;
+                    heap[size++] = node;
+                }
+                siftUp(position[node]);
+            }
+
+            int poll() {
+                int top = heap[0];
+                position[top] = -1;
+                size--;
+                if (size > 0) {
+                    heap[0] = heap[size];
+                    position[heap[0]] = 0;
+                    siftDown(0);
+                }
+                return top;
+            }
+
+            private boolean less(int a, int b) {
+                return isLighter(weight[a], from[a], a, weight[b], from[b], b);
+            }
+
+            private void siftUp(int index) {
+                int node = heap[index];
+                while (index > 0) {
+                    int parent = (index - 1) >>> 1;
+                    if (!less(node, heap[parent])) {
+                        break;
+                    }
+                    heap[index] = heap[parent];
+                    position[heap[index]] = index;
+                    index = parent;
+                }
+                heap[index] = node;
+                position[node] = index;
+            }
+
+            private void siftDown(int index) {
+                int node = heap[index];
+                while (true) {
+                    int child = 2 * index + 1;
+                    if (child >= size) {
+                        break;
+                    }
+                    if (child + 1 < size && less(heap[child + 1], heap[child])) {
+                        child++;
+                    }
+                    if (!less(heap[child], node)) {
+                        break;
+                    }
+                    heap[index] = heap[child];
+                    position[heap[index]] = index;
+                    index = child;
+                }
+                heap[index] = node;
+                position[node] = index;
+            }
+        }
+    }
+
+    public static class GenerationResult {
+
+        /**
+         * A growable edge list used while the number of edges is unknown.
+         */
+        private static class EdgeBuffer {
+
+            int[] sources = new int[16];
+            int[] targets = new int[16];
+            int[] weights = new int[16];
+            int size;
+
+            void add(int source, int target, int weight) {
+                if (size == sources.length) {
+                    int length = sources.length * 2;
+                    sources = Arrays.copyOf(sources, length);
+                    targets = Arrays.copyOf(targets, length);
+                    weights = Arrays.copyOf(weights, length);
+                }
+                sources[size] = source;
+                targets[size] = target;
+                weights[size] = weight;
+                size++;
+            }
+
+            void clear() {
+                size = 0;
+            }
+        }
+
+        /**
+         * The generated edges, in source and then target order.
+         */
+        public final EdgeStore edges;
+        /**
+         * The number of passes over the node pairs it took to produce a
+         * connected graph.
+         */
+        public final int attempts;
+        /**
+         * The number of edges added to connect the graph after generation.
+         */
+        public final int repairEdges;
+        /**
+         * The total weight of the generated edges.
+         */
+        public final long totalWeight;
+
+        // Marked as private to encourage use of static construction method.
+        private GenerationResult(EdgeStore edges, int attempts, int repairEdges, long totalWeight) {
+            this.edges = edges;
+            this.attempts = attempts;
+            this.repairEdges = repairEdges;
+            this.totalWeight = totalWeight;
+        }
+
+        /**
+         * Generates the edges of a connected graph based on the given
+         * parameters. Connectivity is tracked with a disjoint set as edges
+         * are made, so no separate search is needed to detect a disconnected
+         * graph.
+         *
+         * @param n the number of nodes in the graph.
+         * @param seed the seed for the random.
+         * @param p the probability for an edge to be made between two nodes.
+         * @param sampling how to decide which node pairs get an edge.
+         * @param connectivity how to handle a disconnected graph.
+         * @return the generated edges.
+         */
+        public static GenerationResult generate(int n, int seed, double p, Sampling sampling, Connectivity connectivity) {
+            return generate(n, seed, p, sampling, connectivity, Runtime.getRuntime().availableProcessors());
+        }
+
+        /**
+         * Generates the edges of a connected graph based on the given
+         * parameters.
+         *
+         * @param n the number of nodes in the graph.
+         * @param seed the seed for the random.
+         * @param p the probability for an edge to be made between two nodes.
+         * @param sampling how to decide which node pairs get an edge.
+         * @param connectivity how to handle a disconnected graph.
+         * @param threads the number of threads to use for parallel sampling.
+         * @return the generated edges.
+         */
+        public static GenerationResult generate(int n, int seed, double p, Sampling sampling, Connectivity connectivity, int threads) {
+            if (sampling == Sampling.PARALLEL) {
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                try {
+                    return pool.submit(() -> generateParallel(n, seed, p, connectivity)).join();
+                } finally {
+                    pool.shutdown();
+                }
+            }
+            Random randomA = new Random(seed);
+            Random randomB = new Random(seed * 2);
+            EdgeBuffer buffer = new EdgeBuffer();
+            DisjointSet sets;
+            int attempts = 0;
+            do {
+                attempts++;
+                GenerationEvent event = GenerationEvent.start();
+                sets = new DisjointSet(n);
+                buffer.clear();
+                if (sampling == Sampling.SPARSE) {
+                    generateSparse(n, p, randomA, randomB, buffer, sets);
+                } else {
+                    generateDense(n, p, randomA, randomB, buffer, sets);
+                }
+                event.finish(n, p, attempts, buffer.size, sampling);
+            } while (sets.count() != 1 && connectivity == Connectivity.RESTART);
+            EdgeStore store = new EdgeStore(buffer.sources, buffer.targets, buffer.weights, buffer.size, n + 1);
+            if (sampling == Sampling.SPARSE) {
+                // Skip sampling makes edges in target order, count them back
+                // into source order. Targets stay ascending within a source.
+                int[] count = new int[store.bound + 1];
+                store.countPass(store.sources, count, new int[store.size], new int[store.size], new int[store.size]);
+            }
+            int repairEdges = sets.count() - 1;
+            if (repairEdges > 0) {
+                store = repair(store, sets, randomB);
+            }
+            long totalWeight = 0;
+            for (int i = 0; i < store.size; i++) {
+                totalWeight += store.weights[i];
+            }
+            return new GenerationResult(store, attempts, repairEdges, totalWeight);
+        }
+
+        /**
+         * Draws once for every node pair with the rows of the upper triangle
+         * split across the current ForkJoinPool. Each row has its own random
+         * stream derived from the seed, attempt and row, so the graph is the
+         * same for any number of threads.
+         */
+        private static GenerationResult generateParallel(int n, int seed, double p, Connectivity connectivity) {
+            int[][] rowTargets = new int[n][];
+            int[][] rowWeights = new int[n][];
+            int attempts = 0;
+            int components;
+            do {
+                attempts++;
+                GenerationEvent event = GenerationEvent.start();
+                long attemptSeed = mix(((long) seed << 32) ^ attempts);
+                ConcurrentDisjointSet sets = new ConcurrentDisjointSet(n);
+                AtomicInteger merges = new AtomicInteger();
+                IntStream.range(0, n).parallel().forEach(x -> {
+                    SplittableRandom random = new SplittableRandom(mix(attemptSeed + x));
+                    int[] targets = new int[16];
+                    int[] weights = new int[16];
+                    int count = 0;
+                    for (int y = x + 1; y < n; y++) {
+                        if (random.nextDouble() <= p) {
+                            if (count == targets.length) {
+                                targets = Arrays.copyOf(targets, count * 2);
+                                weights = Arrays.copyOf(weights, count * 2);
+                            }
+                            targets[count] = y;
+                            weights[count++] = random.nextInt(n) + 1;
+                            if (sets.union(x, y)) {
+                                merges.incrementAndGet();
+                            }
+                        }
+                    }
+                    rowTargets[x] = Arrays.copyOf(targets, count);
+                    rowWeights[x] = Arrays.copyOf(weights, count);
+                });
+                components = n - merges.get();
+                if (event.shouldCommit()) {
+                    int edges = 0;
+                    for (int[] row : rowTargets) {
+                        edges += row.length;
+                    }
+                    event.finish(n, p, attempts, edges, Sampling.PARALLEL);
+                }
+            } while (components != 1 && connectivity == Connectivity.RESTART);
+            int[] offsets = new int[n + 1];
+            for (int x = 0; x < n; x++) {
+                offsets[x + 1] = offsets[x] + rowTargets[x].length;
+            }
+            int size = offsets[n];
+            int[] sources = new int[size];
+            int[] targets = new int[size];
+            int[] weights = new int[size];
+            IntStream.range(0, n).parallel().forEach(x -> {
+                int length = rowTargets[x].length;
+                Arrays.fill(sources, offsets[x], offsets[x] + length, x);
+                System.arraycopy(rowTargets[x], 0, targets, offsets[x], length);
+                System.arraycopy(rowWeights[x], 0, weights, offsets[x], length);
+            });
+            EdgeStore store = new EdgeStore(sources, targets, weights, size, n + 1);
+            if (components != 1) {
+                DisjointSet sets = new DisjointSet(n);
+                for (int i = 0; i < size; i++) {
+                    sets.union(sources[i], targets[i]);
+                }
+                store = repair(store, sets, new Random(seed * 2));
+            }
+            long totalWeight = 0;
+            for (int i = 0; i < store.size; i++) {
+                totalWeight += store.weights[i];
+            }
+            return new GenerationResult(store, attempts, components - 1, totalWeight);
+        }
+
+        /**
+         * Scrambles the bits of the given value (Stafford's mix13), used to
+         * turn nearby seeds into unrelated random streams.
+         */
+        private static long mix(long z) {
+            z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+            z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+            return z ^ (z >>> 31);
+        }
+
+        /**
+         * Draws once for every node pair, in source and then target order.
+         */
+        private static void generateDense(int n, double p, Random randomA, Random randomB, EdgeBuffer buffer, DisjointSet sets) {
+            for (int x = 0; x < n; x++) {
+                for (int y = x + 1; y < n; y++) {
+                    if (randomA.nextDouble() <= p) {
+                        buffer.add(x, y, randomB.nextInt(n) + 1);
+                        sets.union(x, y);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Draws once per edge by sampling the geometric gap to the next node
+         * pair that gets one (Batagelj and Brandes), so the cost is O(n + m)
+         * instead of O(n^2). Pairs are walked in target and then source
+         * order.
+         */
+        private static void generateSparse(int n, double p, Random randomA, Random randomB, EdgeBuffer buffer, DisjointSet sets) {
+            double logQ = Math.log1p(-p);
+            if (logQ == 0) {
+                return;
+            }
+            long pairs = (long) n * (n - 1) / 2;
+            long target = 1;
+            long source = -1;
+            while (target < n) {
+                double skip = Math.floor(Math.log(1 - randomA.nextDouble()) / logQ);
+                if (!(skip < pairs)) {
+                    return;
+                }
+                source += 1 + (long) skip;
+                while (source >= target && target < n) {
+                    source -= target;
+                    target++;
+                }
+                if (target < n) {
+                    buffer.add((int) source, (int) target, randomB.nextInt(n) + 1);
+                    sets.union((int) source, (int) target);
+                }
+            }
+        }
+
+        /**
+         * Connects node 0 to the lowest node of every other component, with
+         * weights drawn from the given random. Node 0 is always the first
+         * source, so the new edges are merged in at the front of the store.
+         */
+        private static EdgeStore repair(EdgeStore store, DisjointSet sets, Random random) {
+            int n = store.bound - 1;
+            int size = store.size + sets.count() - 1;
+            int[] sources = new int[size];
+            int[] targets = new int[size];
+            int[] weights = new int[size];
+            int count = 0;
+            int index = 0;
+            int root = sets.find(0);
+            for (int v = 1; v < n; v++) {
+                int component = sets.find(v);
+                if (component == root) {
+                    continue;
+                }
+                sets.union(root, v);
+                root = sets.find(0);
+                while (index < store.size && store.sources[index] == 0 && store.targets[index] < v) {
+                    sources[count] = 0;
+                    targets[count] = store.targets[index];
+                    weights[count++] = store.weights[index++];
+                }
+                sources[count] = 0;
+                targets[count] = v;
+                weights[count++] = random.nextInt(n) + 1;
+            }
+            System.arraycopy(store.sources, index, sources, count, store.size - index);
+            System.arraycopy(store.targets, index, targets, count, store.size - index);
+            System.arraycopy(store.weights, index, weights, count, store.size - index);
+            return new EdgeStore(sources, targets, weights, size, store.bound);
+        }
+
+        public static enum Sampling {
+
+            /**
+             * Draw once for every node pair.
+             */
+            DENSE,
+            /**
+             * Skip straight to the next node pair with an edge.
+             */
+            SPARSE,
+            /**
+             * Draw once for every node pair, one random stream per row, with
+             * rows split across threads.
+             */
+            PARALLEL;
+        }
+
+        public static enum Connectivity {
+
+            /**
+             * Regenerate every edge until the graph is connected.
+             */
+            RESTART,
+            /**
+             * Generate every edge once, then connect any remaining components
+             * to node 0 with seeded edges.
+             */
+            REPAIR;
+        }
+    }
+
+    /**
+     * The key scan of Prim's algorithm and the edge scan of a full adjacency
+     * matrix, done on many ints at once by VectorKernels. {@link #load()}
+     * only finds them when they were compiled in from src-vector and the
+     * incubator module is present, and doPrimMatrix and extractMatrix keep
+     * their scalar loops otherwise.
+     */
+    public static interface Kernels {
+
+        /**
+         * @return the smallest of the keys in [from, to), or
+         * Integer.MAX_VALUE if the range is empty.
+         */
+        int min(int[] keys, int from, int to);
+
+        /**
+         * @return the first index in [from, to) holding the given value, or
+         * -1 if there is none.
+         */
+        int indexOf(int[] keys, int from, int to, int value);
+
+        /**
+         * @return the first index in [from, to) holding a value other than
+         * 0, or -1 if there is none.
+         */
+        int nonZero(int[] row, int from, int to);
+
+        /**
+         * Loads VectorKernels if it can be used, unless the mst.scalar
+         * property is set.
+         *
+         * @return the kernels, or null to use the scalar loops.
+         */
+        static Kernels load() {
+            if (Boolean.getBoolean("mst.scalar")) {
+                return null;
+            }
+            try {
+                return (Kernels) Class.forName("VectorKernels").getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError ex) {
+                // Not compiled in, or run without the incubator module.
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Read and write access to the weights of an undirected adjacency matrix.
+     * A weight of 0 means there is no edge.
+     */
+    public static interface AdjacencyMatrix {
+
+        /**
+         * @return the number of rows and columns.
+         */
+        int size();
+
+        /**
+         * @return the weight of the edge between x and y.
+         */
+        int get(int x, int y);
+
+        /**
+         * Sets the weight of the edge between x and y in both directions.
+         */
+        void set(int x, int y, int weight);
+    }
+
+    /**
+     * An adjacency matrix stored as a full int[n][n].
+     */
+    public static class FullMatrix implements AdjacencyMatrix {
+
+        public final int[][] weights;
+
+        public FullMatrix(int n) {
+            this.weights = new int[n][n];
+        }
+
+        @Override
+        public int size() {
+            return weights.length;
+        }
+
+        @Override
+        public int get(int x, int y) {
+            return weights[x][y];
+        }
+
+        @Override
+        public void set(int x, int y, int weight) {
+            weights[x][y] = weight;
+            weights[y][x] = weight;
+        }
+    }
+
+    /**
+     * An adjacency matrix stored as only its upper triangle, flattened row
+     * by row, in the narrowest unsigned type that holds the largest weight.
+     * This takes between an eighth and a half of the memory of a full
+     * int[n][n]. The triangle is split into pages so it can hold more than
+     * 2^31 entries.
+     */
+    public static class TriangularMatrix implements AdjacencyMatrix {
+
+        private static final int PAGE_BITS = 30;
+        private static final int PAGE_MASK = (1 << PAGE_BITS) - 1;
+
+        private final int n;
+        /**
+         * The number of bytes used per weight: 1, 2 or 4.
+         */
+        public final int width;
+        private final byte[][] bytePages;
+        private final char[][] charPages;
+        private final int[][] intPages;
+
+        /**
+         * @param n the number of rows and columns.
+         * @param maxWeight the largest weight that will be stored.
+         */
+        public TriangularMatrix(int n, int maxWeight) {
+            this.n = n;
+            this.width = maxWeight <= 0xFF ? 1 : maxWeight <= 0xFFFF ? 2 : 4;
+            long entries = (long) n * (n - 1) / 2;
+            int pages = (int) ((entries + PAGE_MASK) >>> PAGE_BITS);
+            this.bytePages = width == 1 ? new byte[pages][] : null;
+            this.charPages = width == 2 ? new char[pages][] : null;
+            this.intPages = width == 4 ? new int[pages][] : null;
+            for (int page = 0; page < pages; page++) {
+                int length = (int) Math.min(1L << PAGE_BITS, entries - ((long) page << PAGE_BITS));
+                switch (width) {
+                    case 1:
+                        bytePages[page] = new byte[length];
+                        break;
+                    case 2:
+                        charPages[page] = new char[length];
+                        break;
+                    default:
+                        intPages[page] = new int[length];
+                }
+            }
+        }
+
+        /**
+         * @return the position of (x, y) in the flattened triangle, for x
+         * less than y.
+         */
+        private long index(int x, int y) {
+            return (long) x * (2L * n - x - 1) / 2 + (y - x - 1);
+        }
+
+        @Override
+        public int size() {
+            return n;
+        }
+
+        @Override
+        public int get(int x, int y) {
+            if (x == y) {
+                return 0;
+            }
+            long index = x < y ? index(x, y) : index(y, x);
+            int page = (int) (index >>> PAGE_BITS);
+            int offset = (int) index & PAGE_MASK;
+            switch (width) {
+                case 1:
+                    return bytePages[page][offset] & 0xFF;
+                case 2:
+                    return charPages[page][offset];
+                default:
+                    return intPages[page][offset];
+            }
+        }
+
+        @Override
+        public void set(int x, int y, int weight) {
+            long index = x < y ? index(x, y) : index(y, x);
+            int page = (int) (index >>> PAGE_BITS);
+            int offset = (int) index & PAGE_MASK;
+            switch (width) {
+                case 1:
+                    bytePages[page][offset] = (byte) weight;
+                    break;
+                case 2:
+                    charPages[page][offset] = (char) weight;
+                    break;
+                default:
+                    intPages[page][offset] = weight;
+            }
+        }
+    }
+
+    /**
+     * Read access to a run of ints, whether they are held in an int[], off
+     * the heap or mapped from a file.
+     */
+    public static interface IntArray {
+
+        /**
+         * @return the number of ints.
+         */
+        long length();
+
+        int get(long index);
+    }
+
+    /**
+     * An {@link IntArray} over an int[] on the heap.
+     */
+    public static class HeapIntArray implements IntArray {
+
+        public final int[] values;
+
+        public HeapIntArray(int[] values) {
+            this.values = values;
+        }
+
+        @Override
+        public long length() {
+            return values.length;
+        }
+
+        @Override
+        public int get(long index) {
+            return values[(int) index];
+        }
+    }
+
+    /**
+     * An {@link IntArray} mapped from a region of a little endian file. Like
+     * {@link OffHeapIntArray} it is split into pages, since a single mapping
+     * can not pass 2^31 bytes. The mapping stays valid after the channel it
+     * came from is closed, and is unmapped when the array is collected.
+     */
+    public static class MappedIntArray implements IntArray {
+
+        private static final int PAGE_BITS = 28;
+        private static final int PAGE_MASK = (1 << PAGE_BITS) - 1;
+
+        private final int length;
+        private final MappedByteBuffer[] buffers;
+        private final IntBuffer[] pages;
+
+        private MappedIntArray(int length, MappedByteBuffer[] buffers) {
+            this.length = length;
+            this.buffers = buffers;
+            this.pages = new IntBuffer[buffers.length];
+            for (int page = 0; page < buffers.length; page++) {
+                pages[page] = buffers[page].order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+            }
+        }
+
+        /**
+         * Maps a region of the given channel as an array of ints. Mapping
+         * for writing grows the file to fit.
+         *
+         * @param channel the channel to map.
+         * @param mode how to map it.
+         * @param position where the ints start, in bytes.
+         * @param length the number of ints.
+         * @return the mapped array.
+         * @throws IOException if the region can not be mapped.
+         */
+        public static MappedIntArray map(FileChannel channel, FileChannel.MapMode mode, long position, int length) throws IOException {
+            MappedByteBuffer[] buffers = new MappedByteBuffer[(int) (((long) length + PAGE_MASK) >>> PAGE_BITS)];
+            for (int page = 0; page < buffers.length; page++) {
+                long first = (long) page << PAGE_BITS;
+                long entries = Math.min(1L << PAGE_BITS, length - first);
+                buffers[page] = channel.map(mode, position + first * Integer.BYTES, entries * Integer.BYTES);
+            }
+            return new MappedIntArray(length, buffers);
+        }
+
+        @Override
+        public long length() {
+            return length;
+        }
+
+        @Override
+        public int get(long index) {
+            return pages[(int) (index >>> PAGE_BITS)].get((int) index & PAGE_MASK);
+        }
+
+        /**
+         * Copies the first length() ints of the given array into this one
+         * and writes them out to the file.
+         */
+        public void putAll(IntArray source) {
+            for (int page = 0; page < pages.length; page++) {
+                long first = (long) page << PAGE_BITS;
+                IntBuffer target = pages[page];
+                if (source instanceof HeapIntArray) {
+                    target.put(0, ((HeapIntArray) source).values, (int) first, target.limit());
+                } else {
+                    for (int i = 0; i < target.limit(); i++) {
+                        target.put(i, source.get(first + i));
+                    }
+                }
+                buffers[page].force();
+            }
+        }
+    }
+
+    /**
+     * Edges that are already sorted by weight, held either in an EdgeStore
+     * or in the sections of a mapped graph file. They are only ever read.
+     */
+    public static class SortedEdges {
+
+        public final IntArray sources;
+        public final IntArray targets;
+        public final IntArray weights;
+        /**
+         * The number of edges.
+         */
+        public final int size;
+
+        public SortedEdges(IntArray sources, IntArray targets, IntArray weights, int size) {
+            this.sources = sources;
+            this.targets = targets;
+            this.weights = weights;
+            this.size = size;
+        }
+
+        /**
+         * @return the edges of the given store, which must already be sorted,
+         * without copying them.
+         */
+        public static SortedEdges of(EdgeStore store) {
+            return new SortedEdges(new HeapIntArray(store.sources), new HeapIntArray(store.targets), new HeapIntArray(store.weights), store.size);
+        }
+    }
+
+    /**
+     * An int array held in direct buffers outside the Java heap, so the
+     * collector never scans or moves it. The array is split into pages so
+     * it can hold more than 2^31 entries. Its memory is given back as soon
+     * as it is closed, instead of whenever the collector finds the buffers
+     * unreachable. It must not be used after it is closed.
+     */
+    public static class OffHeapIntArray implements IntArray, AutoCloseable {
+
+        private static final int PAGE_BITS = 28;
+        private static final int PAGE_MASK = (1 << PAGE_BITS) - 1;
+        /**
+         * Unsafe.invokeCleaner, which frees a direct buffer right away, or
+         * null if it can not be reached.
+         */
+        private static final Method INVOKE_CLEANER;
+        private static final Object UNSAFE;
+
+        static {
+            Method invokeCleaner = null;
+            Object unsafe = null;
+            try {
+                Class<?> type = Class.forName("sun.misc.Unsafe");
+                Field field = type.getDeclaredField("theUnsafe");
+                field.setAccessible(true);
+                unsafe = field.get(null);
+                invokeCleaner = type.getMethod("invokeCleaner", ByteBuffer.class);
+            } catch (ReflectiveOperationException | RuntimeException ex) {
+                // Closing only drops the buffers and leaves them to the collector.
+            }
+            INVOKE_CLEANER = invokeCleaner;
+            UNSAFE = unsafe;
+        }
+
+        /**
+         * The number of entries.
+         */
+        public final long length;
+        private ByteBuffer[] buffers;
+        private IntBuffer[] pages;
+
+        /**
+         * Allocates an array of the given length filled with zeros.
+         *
+         * @param length the number of entries.
+         */
+        public OffHeapIntArray(long length) {
+            if (length < 0) {
+                throw new IllegalArgumentException("length must not be negative");
+            }
+            this.length = length;
+            int count = (int) ((length + PAGE_MASK) >>> PAGE_BITS);
+            this.buffers = new ByteBuffer[count];
+            this.pages = new IntBuffer[count];
+            try {
+                for (int page = 0; page < count; page++) {
+                    int entries = (int) Math.min(1L << PAGE_BITS, length - ((long) page << PAGE_BITS));
+                    buffers[page] = ByteBuffer.allocateDirect(entries * Integer.BYTES).order(ByteOrder.nativeOrder());
+                    pages[page] = buffers[page].asIntBuffer();
+                }
+            } catch (OutOfMemoryError ex) {
+                close();
+                throw ex;
+            }
+        }
+
+        @Override
+        public long length() {
+            return length;
+        }
+
+        @Override
+        public int get(long index) {
+            return pages[(int) (index >>> PAGE_BITS)].get((int) index & PAGE_MASK);
+        }
+
+        public void set(long index, int value) {
+            pages[(int) (index >>> PAGE_BITS)].put((int) index & PAGE_MASK, value);
+        }
+
+        /**
+         * Frees the memory of the array. Closing it again does nothing.
+         */
+        @Override
+        public void close() {
+            ByteBuffer[] released = buffers;
+            if (released == null) {
+                return;
+            }
+            // Fail with a NullPointerException rather than read freed memory.
+            buffers = null;
+            pages = null;
+            if (INVOKE_CLEANER == null) {
+                return;
+            }
+            for (ByteBuffer buffer : released) {
+                if (buffer == null) {
+                    continue;
+                }
+                try {
+                    INVOKE_CLEANER.invoke(UNSAFE, buffer);
+                } catch (ReflectiveOperationException ex) {
+                    // Left for the collector.
+                }
+            }
+        }
+    }
+
+    /**
+     * An adjacency matrix stored as a full n by n array of ints outside the
+     * Java heap. Close it to free the matrix once the graph is done with.
+     */
+    public static class OffHeapMatrix implements AdjacencyMatrix, AutoCloseable {
+
+        private final int n;
+        private final OffHeapIntArray weights;
+
+        public OffHeapMatrix(int n) {
+            this.n = n;
+            this.weights = new OffHeapIntArray((long) n * n);
+        }
+
+        @Override
+        public int size() {
+            return n;
+        }
+
+        @Override
+        public int get(int x, int y) {
+            return weights.get((long) x * n + y);
+        }
+
+        @Override
+        public void set(int x, int y, int weight) {
+            weights.set((long) x * n + y, weight);
+            weights.set((long) y * n + x, weight);
+        }
+
+        @Override
+        public void close() {
+            weights.close();
+        }
+    }
+
+    public static class Graph implements GraphResult {
+
+        public final int n;
+        public final int seed;
+        public final double p;
+        /**
+         * How the node pairs that get an edge were chosen.
+         */
+        public final GenerationResult.Sampling sampling;
+        /**
+         * How a disconnected graph was handled.
+         */
+        public final GenerationResult.Connectivity connectivity;
+        public final long totalWeight;
+        /**
+         * The time taken to generate and search the graph, in milliseconds.
+         */
+        public final long generationTime;
+        /**
+         * The cost of generating the graph and building its matrix and list.
+         */
+        public final Stage generation;
+        /**
+         * The cost of the depth first search.
+         */
+        public final Stage search;
+        /**
+         * The number of times the graph was generated before it was connected.
+         */
+        public final int attempts;
+        /**
+         * The number of edges added to connect the graph, when repairing.
+         */
+        public final int repairEdges;
+        public final Edge[] edges;
+        /**
+         * The adjacency matrix as a full int[n][n], or null if the graph was
+         * generated with a compact matrix.
+         */
+        public final int[][] adjacencyMatrix;
+        /**
+         * The adjacency matrix, whatever its storage.
+         */
+        public final AdjacencyMatrix matrix;
+        public final Node[] adjacencyList;
+        public final DFSResult searchResult;
+
+        // Marked as private to encourage use of static construction method.
+        private Graph(int n, int seed, double p, GenerationResult.Sampling sampling, GenerationResult.Connectivity connectivity, long totalWeight,
+                Stage generation, Stage search, int attempts, int repairEdges, Edge[] edges, AdjacencyMatrix matrix, Node[] adjacencyList, DFSResult searchResult) {
+            this.n = n;
+            this.seed = seed;
+            this.p = p;
+            this.sampling = sampling;
+            this.connectivity = connectivity;
+            this.totalWeight = totalWeight;
+            this.generation = generation;
+            this.search = search;
+            this.generationTime = generation.plus(search).millis();
+            this.attempts = attempts;
+            this.repairEdges = repairEdges;
+            this.edges = edges;
+            this.adjacencyMatrix = matrix instanceof FullMatrix ? ((FullMatrix) matrix).weights : null;
+            this.matrix = matrix;
+            this.adjacencyList = adjacencyList;
+            this.searchResult = searchResult;
+        }
+
+        /**
+         * Generates a graph based on the given parameters, restarting until
+         * the graph is connected.
+         *
+         * @param n the length and width of the graph.
+         * @param seed the seed for the random.
+         * @param p the probability for an edge to be made between two nodes.
+         * @return the generated graph.
+         */
+        public static Graph generate(int n, int seed, double p) {
+            return generate(n, seed, p, GenerationResult.Sampling.DENSE, GenerationResult.Connectivity.RESTART);
+        }
+
+        /**
+         * Generates a graph based on the given parameters.
+         *
+         * @param n the length and width of the graph.
+         * @param seed the seed for the random.
+         * @param p the probability for an edge to be made between two nodes.
+         * @param sampling how to decide which node pairs get an edge.
+         * @param connectivity how to handle a disconnected graph.
+         * @return the generated graph.
+         */
+        public static Graph generate(int n, int seed, double p, GenerationResult.Sampling sampling, GenerationResult.Connectivity connectivity) {
+            return generate(n, seed, p, sampling, connectivity, Runtime.getRuntime().availableProcessors());
+        }
+
+        /**
+         * Generates a graph based on the given parameters.
+         *
+         * @param n the length and width of the graph.
+         * @param seed the seed for the random.
+         * @param p the probability for an edge to be made between two nodes.
+         * @param sampling how to decide which node pairs get an edge.
+         * @param connectivity how to handle a disconnected graph.
+         * @param threads the number of threads to use for parallel sampling.
+         * @return the generated graph.
+         */
+        public static Graph generate(int n, int seed, double p, GenerationResult.Sampling sampling, GenerationResult.Connectivity connectivity, int threads) {
+            return generate(n, seed, p, sampling, connectivity, threads, false);
+        }
+
+        /**
+         * Generates a graph based on the given parameters.
+         *
+         * @param n the length and width of the graph.
+         * @param seed the seed for the random.
+         * @param p the probability for an edge to be made between two nodes.
+         * @param sampling how to decide which node pairs get an edge.
+         * @param connectivity how to handle a disconnected graph.
+         * @param threads the number of threads to use for parallel sampling.
+         * @param compactMatrix true to store the adjacency matrix as a
+         * narrow upper triangle instead of a full int[n][n].
+         * @return the generated graph.
+         */
+        public static Graph generate(int n, int seed, double p, GenerationResult.Sampling sampling, GenerationResult.Connectivity connectivity, int threads, boolean compactMatrix) {
+            return generate(n, seed, p, sampling, connectivity, threads, compactMatrix ? MatrixStorage.COMPACT : MatrixStorage.FULL);
+        }
+
+        /**
+         * Generates a graph based on the given parameters. A graph with an
+         * off heap matrix must be released once it is no longer used.
+         *
+         * @param n the length and width of the graph.
+         * @param seed the seed for the random.
+         * @param p the probability for an edge to be made between two nodes.
+         * @param sampling how to decide which node pairs get an edge.
+         * @param connectivity how to handle a disconnected graph.
+         * @param threads the number of threads to use for parallel sampling.
+         * @param storage how to store the adjacency matrix.
+         * @return the generated graph.
+         */
+        public static Graph generate(int n, int seed, double p, GenerationResult.Sampling sampling, GenerationResult.Connectivity connectivity, int threads, MatrixStorage storage) {
+            Stopwatch watch = Stopwatch.start();
+            GenerationResult generation = GenerationResult.generate(n, seed, p, sampling, connectivity, threads);
+            EdgeStore store = generation.edges;
+            AdjacencyMatrix matrix;
+            switch (storage) {
+                case COMPACT:
+                    matrix = new TriangularMatrix(n, n);
+                    break;
+                case OFF_HEAP:
+                    matrix = new OffHeapMatrix(n);
+                    break;
+                default:
+                    matrix = new FullMatrix(n);
+            }
+            Node[] list = new Node[n];
+            for (int i = 0; i < n; i++) {
+                list[i] = new Node(i);
+            }
+            if (sampling == GenerationResult.Sampling.PARALLEL) {
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                try {
+                    pool.submit(() -> buildParallel(store, matrix, list)).join();
+                } finally {
+                    pool.shutdown();
+                }
+            } else {
+                for (int i = 0; i < store.size; i++) {
+                    int x = store.sources[i];
+                    int y = store.targets[i];
+                    int weight = store.weights[i];
+                    matrix.set(x, y, weight);
+                    list[x].addNeighbor(list[y], weight);
+                    list[y].addNeighbor(list[x], weight);
+                }
+            }
+            Stage generationStage = watch.lap();
+            DFSResult searchResult = DFSResult.search(list, 0);
+            Stage searchStage = watch.lap();
+            /**
+             * Get the edges of the created graph
+             */
+            Edge[] edges = new Edge[store.size];
+            for (int i = 0; i < store.size; i++) {
+                edges[i] = new Edge(list[store.sources[i]], list[store.targets[i]], store.weights[i]);
+            }
+            return new Graph(n, seed, p, sampling, connectivity, generation.totalWeight, generationStage, searchStage, generation.attempts, generation.repairEdges,
+                    edges, matrix, list, searchResult);
+        }
+
+        /**
+         * Fills the matrix and adjacency lists from the given edges, split
+         * across the current ForkJoinPool. Every cell of the matrix is
+         * written by one row, then each node reads its neighbors back out of
+         * its matrix row, which gives the same ascending order as adding them
+         * one edge at a time.
+         */
+        private static void buildParallel(EdgeStore store, AdjacencyMatrix matrix, Node[] list) {
+            int n = list.length;
+            int[] offsets = new int[n + 1];
+            for (int i = 0; i < store.size; i++) {
+                offsets[store.sources[i] + 1]++;
+            }
+            for (int x = 0; x < n; x++) {
+                offsets[x + 1] += offsets[x];
+            }
+            IntStream.range(0, n).parallel().forEach(x -> {
+                for (int i = offsets[x]; i < offsets[x + 1]; i++) {
+                    matrix.set(x, store.targets[i], store.weights[i]);
+                }
+            });
+            IntStream.range(0, n).parallel().forEach(x -> {
+                for (int y = 0; y < n; y++) {
+                    int weight = matrix.get(x, y);
+                    if (weight != 0) {
+                        list[x].addNeighbor(list[y], weight);
+                    }
+                }
+            });
+        }
+
+        /**
+         * Frees the adjacency matrix if it is held off the heap. The graph
+         * must not be used afterwards.
+         */
+        public void release() {
+            if (matrix instanceof OffHeapMatrix) {
+                ((OffHeapMatrix) matrix).close();
+            }
+        }
+
+        @Override
+        public StringBuilder appendTo(StringBuilder result) {
+            return appendTo(result, "Time to generate the graph", generation.plus(search));
+        }
+
+        @Override
+        public StringBuilder appendTo(StringBuilder result, String timing, Stage cost) {
+            result.append("TEST: n=").append(n).append(", seed=").append(seed).append(", p=").append(p).append('\n');
+            result.append(timing).append(": ").append(cost.millis()).append(" milliseconds\n\n");
+            if (n <= 10) {
+                result.append("The graph as an adjacency matrix:\n\n");
+                for (int x = 0; x < n; x++) {
+                    for (int y = 0; y < n; y++) {
+                        result.append(' ').append(matrix.get(x, y)).append("  ");
+                    }
+                    result.append("\n\n");
+                }
+                result.append("The graph as an adjacency list:\n");
+                for (Node node : adjacencyList) {
+                    node.appendTo(result).append('\n');
+                }
+                result.append("\nDepth-First Search:\n");
+                result.append("Vertices:\n");
+                for (int i = 0; i < n; i++) {
+                    result.append(' ').append(i);
+                }
+                result.append("\nPredecessors:\n");
+                for (int i = 0; i < n; i++) {
+                    if (searchResult.predecessors[i] == null) {
+                        result.append("-1");
+                    } else {
+                        result.append(' ').append(searchResult.predecessors[i].id);
+                    }
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public void addMetrics(Metrics metrics) {
+            metrics.add("generate", "GRAPH", generation, attempts, repairEdges, totalWeight);
+            metrics.add("dfs", "GRAPH", search, -1, -1, -1);
+        }
+
+        @Override
+        public void addMetrics(Metrics metrics, String stage, Stage cost) {
+            metrics.add(stage, "GRAPH", cost, -1, -1, totalWeight);
+        }
+
+        @Override
+        public String toString() {
+            return appendTo(new StringBuilder()).toString();
+        }
+
+        /**
+         * Where the adjacency matrix of a graph is stored.
+         */
+        public static enum MatrixStorage {
+            /**
+             * A full int[n][n] on the heap.
+             */
+            FULL,
+            /**
+             * A narrow upper triangle on the heap, see {@link TriangularMatrix}.
+             */
+            COMPACT,
+            /**
+             * A full matrix outside the heap, see {@link OffHeapMatrix}.
+             */
+            OFF_HEAP
+        }
+    }
+
+    public static class CSRGraph implements GraphResult {
+
+        public final int n;
+        public final int seed;
+        public final double p;
+        /**
+         * How the node pairs that get an edge were chosen.
+         */
+        public final GenerationResult.Sampling sampling;
+        /**
+         * How a disconnected graph was handled.
+         */
+        public final GenerationResult.Connectivity connectivity;
+        public final long totalWeight;
+        /**
+         * The time taken to generate and search the graph, in milliseconds.
+         */
+        public final long generationTime;
+        /**
+         * The cost of generating the graph and building its arrays.
+         */
+        public final Stage generation;
+        /**
+         * The cost of the depth first search.
+         */
+        public final Stage search;
+        /**
+         * The number of times the graph was generated before it was connected.
+         */
+        public final int attempts;
+        /**
+         * The neighbors of node v are at indices offsets[v] (inclusive) to
+         * offsets[v + 1] (exclusive) of targets and weights, in ascending
+         * order. Every edge is stored once in each direction. A generated
+         * graph holds its arrays on the heap, and a graph loaded from a
+         * graph file reads them straight from the mapped file.
+         */
+        public final IntArray offsets;
+        /**
+         * The target node of each stored edge.
+         */
+        public final IntArray targets;
+        /**
+         * The weight of each stored edge.
+         */
+        public final IntArray weights;
+        /**
+         * The number of nodes reached by the DFS from node 0.
+         */
+        public final int nodesReached;
+        /**
+         * The predecessor of each node in the DFS from node 0, or -1 if it
+         * does not have one.
+         */
+        public final IntArray predecessors;
+
+        // Marked as private to encourage use of static construction method.
+        private CSRGraph(int n, int seed, double p, GenerationResult.Sampling sampling, GenerationResult.Connectivity connectivity, long totalWeight,
+                Stage generation, Stage search, int attempts, IntArray offsets, IntArray targets, IntArray weights, IntArray predecessors, int nodesReached) {
+            this.n = n;
+            this.seed = seed;
+            this.p = p;
+            this.sampling = sampling;
+            this.connectivity = connectivity;
+            this.totalWeight = totalWeight;
+            this.generation = generation;
+            this.search = search;
+            this.generationTime = generation.plus(search).millis();
+            this.attempts = attempts;
+            this.offsets = offsets;
+            this.targets = targets;
+            this.weights = weights;
+            this.predecessors = predecessors;
+            this.nodesReached = nodesReached;
+        }
+
+        /**
+         * Generates a graph based on the given parameters, restarting until
+         * the graph is connected.
+         *
+         * @param n the number of nodes in the graph.
+         * @param seed the seed for the random.
+         * @param p the probability for an edge to be made between two nodes.
+         * @return the generated graph.
+         */
+        public static CSRGraph generate(int n, int seed, double p) {
+            return generate(n, seed, p, GenerationResult.Sampling.DENSE, GenerationResult.Connectivity.RESTART);
+        }
+
+        /**
+         * Generates a graph based on the given parameters. Uses the same
+         * random sequence as {@link Graph#generate(int, int, double,
+         * GenerationResult.Sampling, GenerationResult.Connectivity)}, so the
+         * same parameters produce the same graph, but never builds Node, Edge
+         * or matrix objects.
+         *
+         * @param n the number of nodes in the graph.
+         * @param seed the seed for the random.
+         * @param p the probability for an edge to be made between two nodes.
+         * @param sampling how to decide which node pairs get an edge.
+         * @param connectivity how to handle a disconnected graph.
+         * @return the generated graph.
+         */
+        public static CSRGraph generate(int n, int seed, double p, GenerationResult.Sampling sampling, GenerationResult.Connectivity connectivity) {
+            return generate(n, seed, p, sampling, connectivity, false);
+        }
+
+        /**
+         * Generates a graph based on the given parameters, optionally holding
+         * its targets and weights off the heap. The generated edges are only
+         * kept until those arrays are built, so an off heap graph leaves just
+         * its offsets and predecessors on the heap.
+         *
+         * @param n the number of nodes in the graph.
+         * @param seed the seed for the random.
+         * @param p the probability for an edge to be made between two nodes.
+         * @param sampling how to decide which node pairs get an edge.
+         * @param connectivity how to handle a disconnected graph.
+         * @param offHeap whether to hold the targets and weights in
+         * {@link OffHeapIntArray}s, in which case the graph must be released.
+         * @return the generated graph.
+         */
+        public static CSRGraph generate(int n, int seed, double p, GenerationResult.Sampling sampling, GenerationResult.Connectivity connectivity,
+                boolean offHeap) {
+            Stopwatch watch = Stopwatch.start();
+            GenerationResult generation = GenerationResult.generate(n, seed, p, sampling, connectivity);
+            int[] offsets = offsets(n, generation.edges);
+            IntArray[] csr = offHeap ? buildOffHeap(offsets, generation.edges) : build(offsets, generation.edges);
+            Stage generationStage = watch.lap();
+            int[] predecessors = new int[n];
+            int nodesReached = search(offsets, csr[0], 0, predecessors);
+            return new CSRGraph(n, seed, p, sampling, connectivity, generation.totalWeight, generationStage, watch.lap(), generation.attempts,
+                    new HeapIntArray(offsets), csr[0], csr[1], new HeapIntArray(predecessors), nodesReached);
+        }
+
+        /**
+         * Converts the given graph into compressed sparse row form.
+         *
+         * @param input the given graph.
+         * @return the converted graph.
+         */
+        public static CSRGraph fromGraph(Graph input) {
+            int n = input.n;
+            int[] offsets = new int[n + 1];
+            for (int v = 0; v < n; v++) {
+                offsets[v + 1] = offsets[v] + input.adjacencyList[v].edges.size();
+            }
+            int[] targets = new int[offsets[n]];
+            int[] weights = new int[offsets[n]];
+            for (int v = 0; v < n; v++) {
+                int index = offsets[v];
+                for (Edge edge : input.adjacencyList[v].edges) {
+                    targets[index] = edge.target.id;
+                    weights[index] = edge.weight;
+                    index++;
+                }
+            }
+            int[] predecessors = new int[n];
+            int nodesReached = search(offsets, new HeapIntArray(targets), 0, predecessors);
+            return new CSRGraph(n, input.seed, input.p, input.sampling, input.connectivity, input.totalWeight, input.generation, input.search, input.attempts,
+                    new HeapIntArray(offsets), new HeapIntArray(targets), new HeapIntArray(weights), new HeapIntArray(predecessors), nodesReached);
+        }
+
+        /**
+         * Builds the offsets array from the given edges.
+         */
+        private static int[] offsets(int n, EdgeStore store) {
+            int[] offsets = new int[n + 1];
+            for (int i = 0; i < store.size; i++) {
+                offsets[store.sources[i] + 1]++;
+                offsets[store.targets[i] + 1]++;
+            }
+            for (int v = 0; v < n; v++) {
+                offsets[v + 1] += offsets[v];
+            }
+            return offsets;
+        }
+
+        /**
+         * Builds the targets and weights arrays from the given edges, which
+         * must be sorted by source and then target.
+         */
+        private static IntArray[] build(int[] offsets, EdgeStore store) {
+            int[] cursor = Arrays.copyOf(offsets, offsets.length - 1);
+            int[] csrTargets = new int[store.size * 2];
+            int[] csrWeights = new int[store.size * 2];
+            for (int i = 0; i < store.size; i++) {
+                int x = store.sources[i];
+                int y = store.targets[i];
+                csrTargets[cursor[x]] = y;
+                csrWeights[cursor[x]++] = store.weights[i];
+                csrTargets[cursor[y]] = x;
+                csrWeights[cursor[y]++] = store.weights[i];
+            }
+            return new IntArray[]{new HeapIntArray(csrTargets), new HeapIntArray(csrWeights)};
+        }
+
+        /**
+         * Builds the targets and weights arrays as {@link #build} does, but
+         * off the heap.
+         */
+        private static IntArray[] buildOffHeap(int[] offsets, EdgeStore store) {
+            int[] cursor = Arrays.copyOf(offsets, offsets.length - 1);
+            OffHeapIntArray csrTargets = new OffHeapIntArray(store.size * 2L);
+            OffHeapIntArray csrWeights;
+            try {
+                csrWeights = new OffHeapIntArray(store.size * 2L);
+            } catch (OutOfMemoryError ex) {
+                csrTargets.close();
+                throw ex;
+            }
+            for (int i = 0; i < store.size; i++) {
+                int x = store.sources[i];
+                int y = store.targets[i];
+                csrTargets.set(cursor[x], y);
+                csrWeights.set(cursor[x]++, store.weights[i]);
+                csrTargets.set(cursor[y], x);
+                csrWeights.set(cursor[y]++, store.weights[i]);
+            }
+            return new IntArray[]{csrTargets, csrWeights};
+        }
+
+        /**
+         * Frees the targets and weights if they are held off the heap. The
+         * graph must not be used afterwards.
+         */
+        public void release() {
+            if (targets instanceof OffHeapIntArray) {
+                ((OffHeapIntArray) targets).close();
+            }
+            if (weights instanceof OffHeapIntArray) {
+                ((OffHeapIntArray) weights).close();
+            }
+        }
+
+        /**
+         * Runs a DFS from the given node, visiting neighbors in the same
+         * order as {@link DFSResult#search(Node[], int)} without recursion.
+         *
+         * @return the number of nodes reached.
+         */
+        private static int search(int[] offsets, IntArray targets, int initial, int[] predecessors) {
+            SearchEvent event = SearchEvent.start();
+            int n = offsets.length - 1;
+            long[] seen = new long[(n + 63) >>> 6];
+            int[] stack = new int[n];
+            int[] cursor = Arrays.copyOf(offsets, n);
+            Arrays.fill(predecessors, -1);
+            int depth = 0;
+            stack[depth++] = initial;
+            seen[initial >>> 6] |= 1L << initial;
+            int nodesReached = 1;
+            while (depth > 0) {
+                int current = stack[depth - 1];
+                if (cursor[current] == offsets[current + 1]) {
+                    depth--;
+                    continue;
+                }
+                int target = targets.get(cursor[current]++);
+                if ((seen[target >>> 6] & (1L << target)) == 0) {
+                    seen[target >>> 6] |= 1L << target;
+                    predecessors[target] = current;
+                    stack[depth++] = target;
+                    nodesReached++;
+                }
+            }
+            event.finish(n, nodesReached, "CSR", "DEPTH");
+            return nodesReached;
+        }
+
+        /**
+         * @return the number of undirected edges in the graph.
+         */
+        public int edgeCount() {
+            return (int) (targets.length() / 2);
+        }
+
+        /**
+         * Finds the node an edge index belongs to.
+         *
+         * @param index an index into targets and weights.
+         * @return the source node of the edge.
+         */
+        public int sourceOf(int index) {
+            int low = 0;
+            int high = n - 1;
+            while (low < high) {
+                int middle = (low + high + 1) >>> 1;
+                if (offsets.get(middle) <= index) {
+                    low = middle;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * Sorts the edges of the graph without building any edge objects.
+         * Each edge is packed as its weight in the high 32 bits and its index
+         * into targets and weights in the low 32 bits. Only the copy with the
+         * larger target is kept, and since indices run in source then target
+         * order this sorts the same way as {@link Edge#compareTo(Edge)}.
+         *
+         * @return the sorted packed edges.
+         */
+        public long[] sortEdges() {
+            long[] keys = new long[edgeCount()];
+            int count = 0;
+            for (int v = 0; v < n; v++) {
+                for (int i = offsets.get(v), end = offsets.get(v + 1); i < end; i++) {
+                    if (targets.get(i) > v) {
+                        keys[count++] = ((long) weights.get(i) << 32) | i;
+                    }
+                }
+            }
+            Arrays.sort(keys);
+            return keys;
+        }
+
+        @Override
+        public StringBuilder appendTo(StringBuilder result) {
+            return appendTo(result, "Time to generate the graph", generation.plus(search));
+        }
+
+        @Override
+        public StringBuilder appendTo(StringBuilder result, String timing, Stage cost) {
+            result.append("TEST: n=").append(n).append(", seed=").append(seed).append(", p=").append(p).append('\n');
+            result.append(timing).append(": ").append(cost.millis()).append(" milliseconds\n\n");
+            if (n <= 10) {
+                result.append("The graph as an adjacency list:\n");
+                for (int v = 0; v < n; v++) {
+                    result.append(v).append("-> ");
+                    for (int i = offsets.get(v); i < offsets.get(v + 1); i++) {
+                        result.append(targets.get(i)).append('(').append(weights.get(i)).append(") ");
+                    }
+                    result.append('\n');
+                }
+                result.append("\nDepth-First Search:\n");
+                result.append("Vertices:\n");
+                for (int i = 0; i < n; i++) {
+                    result.append(' ').append(i);
+                }
+                result.append("\nPredecessors:\n");
+                for (int i = 0; i < n; i++) {
+                    if (predecessors.get(i) == -1) {
+                        result.append("-1");
+                    } else {
+                        result.append(' ').append(predecessors.get(i));
+                    }
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public void addMetrics(Metrics metrics) {
+            metrics.add("generate", "CSR", generation, attempts, -1, totalWeight);
+            metrics.add("dfs", "CSR", search, -1, -1, -1);
+        }
+
+        @Override
+        public void addMetrics(Metrics metrics, String stage, Stage cost) {
+            metrics.add(stage, "CSR", cost, -1, -1, totalWeight);
+        }
+
+        @Override
+        public String toString() {
+            return appendTo(new StringBuilder()).toString();
+        }
+    }
+
+    /**
+     * A graph that can change after it is generated, keeping its minimum
+     * spanning forest up to date as it does. The forest is the one Kruskal
+     * builds, under the same (weight, source, target) order.
+     *
+     * Adding an edge between two trees links them. Adding one inside a tree
+     * swaps it for the heaviest edge on the tree path between its ends, if
+     * it is lighter (the cycle property). Removing a tree edge splits its
+     * tree. The smaller half is found by searching both halves in lockstep,
+     * and its edges are scanned for the lightest one that reconnects them.
+     * An update costs at most a walk over one tree plus the edges of the
+     * smaller half. A rebuild sorts every edge again.
+     */
+    public static class DynamicGraph {
+
+        public final int n;
+        /**
+         * The adjacency list of the graph, changed in place.
+         */
+        public final Node[] adjacencyList;
+        /**
+         * The minimum spanning forest as an adjacency list.
+         */
+        private final Node[] forest;
+        /**
+         * Every edge, with source below target, keyed by its node pair.
+         */
+        private final HashMap<Long, Edge> edges = new HashMap<Long, Edge>();
+        private final HashSet<Long> treeKeys = new HashSet<Long>();
+        private long treeWeight;
+        // Scratch space for searching the forest, reused between updates.
+        private final int[] mark;
+        private final int[] parent;
+        private final int[] parentWeight;
+        private final int[] queueA;
+        private final int[] queueB;
+        private int epoch;
+
+        /**
+         * Makes an empty graph.
+         *
+         * @param n the number of nodes.
+         */
+        public DynamicGraph(int n) {
+            this.n = n;
+            this.adjacencyList = new Node[n];
+            this.forest = new Node[n];
+            for (int i = 0; i < n; i++) {
+                adjacencyList[i] = new Node(i);
+                forest[i] = new Node(i);
+            }
+            this.mark = new int[n];
+            this.parent = new int[n];
+            this.parentWeight = new int[n];
+            this.queueA = new int[n];
+            this.queueB = new int[n];
+        }
+
+        /**
+         * Copies the edges of the given graph, building the first forest with
+         * a single sort.
+         *
+         * @param input the given graph.
+         * @return the dynamic graph.
+         */
+        public static DynamicGraph fromGraph(Graph input) {
+            DynamicGraph graph = new DynamicGraph(input.n);
+            Edge[] sorted = new Edge[input.edges.length];
+            DisjointSet sets = new DisjointSet(input.n);
+            for (int i = 0; i < sorted.length; i++) {
+                Edge edge = input.edges[i];
+                sorted[i] = graph.insert(edge.source.id, edge.target.id, edge.weight);
+            }
+            Arrays.sort(sorted);
+            for (Edge edge : sorted) {
+                if (sets.union(edge.source.id, edge.target.id)) {
+                    graph.link(edge);
+                }
+            }
+            return graph;
+        }
+
+        /**
+         * Adds an edge to the graph.
+         *
+         * @param x one end of the edge.
+         * @param y the other end of the edge.
+         * @param weight the weight of the edge.
+         * @return false if the edge already exists.
+         */
+        public boolean addEdge(int x, int y, int weight) {
+            check(x, y);
+            if (weight <= 0) {
+                throw new IllegalArgumentException("weight must be greater than 0");
+            }
+            if (edges.containsKey(key(x, y))) {
+                return false;
+            }
+            Edge edge = insert(x, y, weight);
+            if (!findPath(edge.source.id, edge.target.id)) {
+                link(edge);
+                return true;
+            }
+            // The edge closes a cycle, it replaces the heaviest edge on it.
+            int heaviest = heaviestOnPath(edge.source.id, edge.target.id);
+            int from = parent[heaviest];
+            if (MSTResult.isLighter(weight, edge.source.id, edge.target.id, parentWeight[heaviest], from, heaviest)) {
+                cut(edges.get(key(from, heaviest)));
+                link(edge);
+            }
+            return true;
+        }
+
+        /**
+         * Removes an edge from the graph.
+         *
+         * @param x one end of the edge.
+         * @param y the other end of the edge.
+         * @return false if the edge does not exist.
+         */
+        public boolean removeEdge(int x, int y) {
+            check(x, y);
+            Edge edge = edges.remove(key(x, y));
+            if (edge == null) {
+                return false;
+            }
+            removeNeighbor(adjacencyList[x], y);
+            removeNeighbor(adjacencyList[y], x);
+            if (treeKeys.contains(key(x, y))) {
+                cut(edge);
+                reconnect(x, y);
+            }
+            return true;
+        }
+
+        /**
+         * Changes the weight of an edge.
+         *
+         * @param x one end of the edge.
+         * @param y the other end of the edge.
+         * @param weight the new weight of the edge.
+         * @return false if the edge does not exist.
+         */
+        public boolean updateWeight(int x, int y, int weight) {
+            check(x, y);
+            if (weight <= 0) {
+                throw new IllegalArgumentException("weight must be greater than 0");
+            }
+            Edge edge = edges.get(key(x, y));
+            if (edge == null) {
+                return false;
+            }
+            boolean inTree = treeKeys.contains(key(x, y));
+            if (inTree ? weight > edge.weight : weight < edge.weight) {
+                // A heavier tree edge may lose to a crossing edge, a lighter
+                // edge outside the tree may beat one on its cycle.
+                removeEdge(x, y);
+                addEdge(x, y, weight);
+                return true;
+            }
+            // A lighter tree edge or a heavier edge outside the tree leaves
+            // the forest as it is.
+            removeNeighbor(adjacencyList[x], y);
+            removeNeighbor(adjacencyList[y], x);
+            Edge updated = insert(x, y, weight);
+            if (inTree) {
+                cut(edge);
+                link(updated);
+            }
+            return true;
+        }
+
+        /**
+         * @return the edges of the minimum spanning forest, in sorted order.
+         */
+        public Edge[] treeEdges() {
+            Edge[] tree = new Edge[treeKeys.size()];
+            int i = 0;
+            for (Long key : treeKeys) {
+                tree[i++] = edges.get(key);
+            }
+            Arrays.sort(tree);
+            return tree;
+        }
+
+        /**
+         * @return the total weight of the minimum spanning forest.
+         */
+        public long treeWeight() {
+            return treeWeight;
+        }
+
+        /**
+         * @return the number of edges in the graph.
+         */
+        public int edgeCount() {
+            return edges.size();
+        }
+
+        private void check(int x, int y) {
+            if (x < 0 || x >= n || y < 0 || y >= n) {
+                throw new IllegalArgumentException("nodes must be between 0 and " + (n - 1));
+            } else if (x == y) {
+                throw new IllegalArgumentException("an edge must join two different nodes");
+            }
+        }
+
+        private static long key(int x, int y) {
+            return ((long) Math.min(x, y) << 32) | Math.max(x, y);
+        }
+
+        private Edge insert(int x, int y, int weight) {
+            Edge edge = MSTResult.canonicalEdge(adjacencyList, x, y, weight);
+            edges.put(key(x, y), edge);
+            adjacencyList[x].addNeighbor(adjacencyList[y], weight);
+            adjacencyList[y].addNeighbor(adjacencyList[x], weight);
+            return edge;
+        }
+
+        private void link(Edge edge) {
+            int x = edge.source.id;
+            int y = edge.target.id;
+            treeKeys.add(key(x, y));
+            forest[x].addNeighbor(forest[y], edge.weight);
+            forest[y].addNeighbor(forest[x], edge.weight);
+            treeWeight += edge.weight;
+        }
+
+        private void cut(Edge edge) {
+            int x = edge.source.id;
+            int y = edge.target.id;
+            treeKeys.remove(key(x, y));
+            removeNeighbor(forest[x], y);
+            removeNeighbor(forest[y], x);
+            treeWeight -= edge.weight;
+        }
+
+        private static void removeNeighbor(Node node, int target) {
+            ArrayList<Edge> list = node.edges;
+            for (int i = 0; i < list.size(); i++) {
+                if (list.get(i).target.id == target) {
+                    // Order does not matter, move the last edge into the gap.
+                    list.set(i, list.get(list.size() - 1));
+                    list.remove(list.size() - 1);
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Searches the forest from x, recording parents, until y is reached.
+         *
+         * @return true if x and y are in the same tree.
+         */
+        private boolean findPath(int x, int y) {
+            int stamp = ++epoch;
+            int head = 0;
+            int tail = 0;
+            queueA[tail++] = x;
+            mark[x] = stamp;
+            parent[x] = -1;
+            while (head < tail) {
+                int current = queueA[head++];
+                for (Edge edge : forest[current].edges) {
+                    int target = edge.target.id;
+                    if (mark[target] != stamp) {
+                        mark[target] = stamp;
+                        parent[target] = current;
+                        parentWeight[target] = edge.weight;
+                        if (target == y) {
+                            return true;
+                        }
+                        queueA[tail++] = target;
+                    }
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Walks the parents found by {@link #findPath} back from y to x.
+         *
+         * @return the node whose edge to its parent is the heaviest.
+         */
+        private int heaviestOnPath(int x, int y) {
+            int heaviest = y;
+            for (int v = parent[y]; v != x; v = parent[v]) {
+                if (MSTResult.isLighter(parentWeight[heaviest], parent[heaviest], heaviest, parentWeight[v], parent[v], v)) {
+                    heaviest = v;
+                }
+            }
+            return heaviest;
+        }
+
+        /**
+         * Links the two trees that removing the edge between x and y left,
+         * through the lightest edge between them if there is one.
+         */
+        private void reconnect(int x, int y) {
+            // Search both halves a node at a time. The first to finish is the
+            // smaller one, and only its edges need to be scanned.
+            int stampA = ++epoch;
+            int stampB = ++epoch;
+            int headA = 0;
+            int tailA = 0;
+            int headB = 0;
+            int tailB = 0;
+            queueA[tailA++] = x;
+            mark[x] = stampA;
+            queueB[tailB++] = y;
+            mark[y] = stampB;
+            while (headA < tailA && headB < tailB) {
+                tailA = visit(queueA[headA++], queueA, tailA, stampA);
+                tailB = visit(queueB[headB++], queueB, tailB, stampB);
+            }
+            int[] side = headA == tailA ? queueA : queueB;
+            int size = headA == tailA ? tailA : tailB;
+            int stamp = headA == tailA ? stampA : stampB;
+            Edge lightest = null;
+            for (int i = 0; i < size; i++) {
+                for (Edge edge : adjacencyList[side[i]].edges) {
+                    if (mark[edge.target.id] == stamp) {
+                        continue;
+                    }
+                    Edge candidate = edges.get(key(edge.source.id, edge.target.id));
+                    if (lightest == null || candidate.compareTo(lightest) < 0) {
+                        lightest = candidate;
+                    }
+                }
+            }
+            if (lightest != null) {
+                link(lightest);
+            }
+        }
+
+        private int visit(int current, int[] queue, int tail, int stamp) {
+            for (Edge edge : forest[current].edges) {
+                int target = edge.target.id;
+                if (mark[target] != stamp) {
+                    mark[target] = stamp;
+                    queue[tail++] = target;
+                }
+            }
+            return tail;
+        }
+    }
+
+    public static class EdgeStore {
+
+        /**
+         * The source node of each edge. Always less than the target.
+         */
+        public final int[] sources;
+        /**
+         * The target node of each edge.
+         */
+        public final int[] targets;
+        /**
+         * The weight of each edge.
+         */
+        public final int[] weights;
+        /**
+         * The number of edges in the store.
+         */
+        public final int size;
+        /**
+         * One more than the largest node id or weight in the store.
+         */
+        public final int bound;
+
+        public EdgeStore(int[] sources, int[] targets, int[] weights, int size, int bound) {
+            this.sources = sources;
+            this.targets = targets;
+            this.weights = weights;
+            this.size = size;
+            this.bound = bound;
+        }
+
+        /**
+         * Copies the edges of the given graph into a new store.
+         *
+         * @param input the given graph.
+         * @return the new store.
+         */
+        public static EdgeStore fromGraph(Graph input) {
+            int size = input.edges.length;
+            int[] sources = new int[size];
+            int[] targets = new int[size];
+            int[] weights = new int[size];
+            for (int i = 0; i < size; i++) {
+                Edge edge = input.edges[i];
+                sources[i] = edge.source.id;
+                targets[i] = edge.target.id;
+                weights[i] = edge.weight;
+            }
+            return new EdgeStore(sources, targets, weights, size, input.n + 1);
+        }
+
+        /**
+         * Copies the edges of the given graph into a new store, in source and
+         * then target order.
+         *
+         * @param input the given graph.
+         * @return the new store.
+         */
+        public static EdgeStore fromCSR(CSRGraph input) {
+            int size = input.edgeCount();
+            int[] sources = new int[size];
+            int[] targets = new int[size];
+            int[] weights = new int[size];
+            int count = 0;
+            for (int v = 0; v < input.n; v++) {
+                for (int i = input.offsets.get(v), end = input.offsets.get(v + 1); i < end; i++) {
+                    int target = input.targets.get(i);
+                    if (target > v) {
+                        sources[count] = v;
+                        targets[count] = target;
+                        weights[count] = input.weights.get(i);
+                        count++;
+                    }
+                }
+            }
+            return new EdgeStore(sources, targets, weights, size, input.n + 1);
+        }
+
+        /**
+         * @return a copy of this store that can be sorted independently.
+         */
+        public EdgeStore copy() {
+            return new EdgeStore(Arrays.copyOf(sources, size), Arrays.copyOf(targets, size), Arrays.copyOf(weights, size), size, bound);
+        }
+
+        /**
+         * Compares two edges in the store using the order of
+         * {@link Edge#compareTo(Edge)}.
+         */
+        public int compare(int i, int j) {
+            return Edge.compare(weights[i], sources[i], targets[i], weights[j], sources[j], targets[j]);
+        }
+
+        private void swap(int i, int j) {
+            int temp = sources[i];
+            sources[i] = sources[j];
+            sources[j] = temp;
+            temp = targets[i];
+            targets[i] = targets[j];
+            targets[j] = temp;
+            temp = weights[i];
+            weights[i] = weights[j];
+            weights[j] = temp;
+        }
+
+        /**
+         * @return the number of bits needed for one field of a packed key, or
+         * -1 if three fields do not fit in a long.
+         */
+        private int keyBits() {
+            int bits = 32 - Integer.numberOfLeadingZeros(bound);
+            return bits * 3 <= 63 ? bits : -1;
+        }
+
+        /**
+         * Sorts the store in place with an insertion sort.
+         */
+        public void insertionSort() {
+            for (int i = 1; i < size; i++) {
+                int source = sources[i];
+                int target = targets[i];
+                int weight = weights[i];
+                int j = i;
+                while (j > 0 && Edge.compare(weight, source, target, weights[j - 1], sources[j - 1], targets[j - 1]) < 0) {
+                    sources[j] = sources[j - 1];
+                    targets[j] = targets[j - 1];
+                    weights[j] = weights[j - 1];
+                    j--;
+                }
+                sources[j] = source;
+                targets[j] = target;
+                weights[j] = weight;
+            }
+        }
+
+        /**
+         * Sorts the store with stable counting passes. If the edges are not
+         * already in source and then target order, they are first counted
+         * into that order so ties on weight still break like
+         * {@link Edge#compareTo(Edge)}.
+         */
+        public void countSort() {
+            int[] count = new int[bound + 1];
+            int[] scratchSources = new int[size];
+            int[] scratchTargets = new int[size];
+            int[] scratchWeights = new int[size];
+            boolean ordered = true;
+            for (int i = 1; i < size && ordered; i++) {
+                ordered = sources[i - 1] < sources[i] || (sources[i - 1] == sources[i] && targets[i - 1] < targets[i]);
+            }
+            if (!ordered) {
+                countPass(targets, count, scratchSources, scratchTargets, scratchWeights);
+                countPass(sources, count, scratchSources, scratchTargets, scratchWeights);
+            }
+            countPass(weights, count, scratchSources, scratchTargets, scratchWeights);
+        }
+
+        /**
+         * Stably reorders the store on the given key array, which must be one
+         * of sources, targets or weights.
+         */
+        private void countPass(int[] key, int[] count, int[] scratchSources, int[] scratchTargets, int[] scratchWeights) {
+            Arrays.fill(count, 0);
+            for (int i = 0; i < size; i++) {
+                count[key[i] + 1]++;
+            }
+            for (int i = 1; i < count.length; i++) {
+                count[i] += count[i - 1];
+            }
+            for (int i = 0; i < size; i++) {
+                int index = count[key[i]]++;
+                scratchSources[index] = sources[i];
+                scratchTargets[index] = targets[i];
+                scratchWeights[index] = weights[i];
+            }
+            System.arraycopy(scratchSources, 0, sources, 0, size);
+            System.arraycopy(scratchTargets, 0, targets, 0, size);
+            System.arraycopy(scratchWeights, 0, weights, 0, size);
+        }
+
+        /**
+         * Sorts the store in place with a quicksort. When the node ids and
+         * weights are small enough, each edge is packed into a single long of
+         * (weight, source, target) so the sort touches one array instead of
+         * three.
+         */
+        public void quickSort() {
+            int bits = keyBits();
+            if (bits < 0) {
+                quickSort(0, size - 1);
+                return;
+            }
+            long[] keys = new long[size];
+            for (int i = 0; i < size; i++) {
+                keys[i] = ((long) weights[i] << (bits * 2)) | ((long) sources[i] << bits) | targets[i];
+            }
+            quickSort(keys, 0, size - 1);
+            long mask = (1L << bits) - 1;
+            for (int i = 0; i < size; i++) {
+                long key = keys[i];
+                weights[i] = (int) (key >>> (bits * 2));
+                sources[i] = (int) ((key >>> bits) & mask);
+                targets[i] = (int) (key & mask);
+            }
+        }
+
+        private void quickSort(int lowerIndex, int higherIndex) {
+            while (lowerIndex < higherIndex) {
+                int i = lowerIndex;
+                int j = higherIndex;
+                int middle = lowerIndex + (higherIndex - lowerIndex) / 2;
+                int pivotSource = sources[middle];
+                int pivotTarget = targets[middle];
+                int pivotWeight = weights[middle];
+                while (i <= j) {
+                    while (Edge.compare(weights[i], sources[i], targets[i], pivotWeight, pivotSource, pivotTarget) < 0) {
+                        i++;
+                    }
+                    while (Edge.compare(weights[j], sources[j], targets[j], pivotWeight, pivotSource, pivotTarget) > 0) {
+                        j--;
+                    }
+                    if (i <= j) {
+                        swap(i, j);
+                        i++;
+                        j--;
+                    }
+                }
+                // Recurse into the smaller side to bound the stack depth.
+                if (j - lowerIndex < higherIndex - i) {
+                    quickSort(lowerIndex, j);
+                    lowerIndex = i;
+                } else {
+                    quickSort(i, higherIndex);
+                    higherIndex = j;
+                }
+            }
+        }
+
+        private static void quickSort(long[] keys, int lowerIndex, int higherIndex) {
+            while (lowerIndex < higherIndex) {
+                int i = lowerIndex;
+                int j = higherIndex;
+                long pivot = keys[lowerIndex + (higherIndex - lowerIndex) / 2];
+                while (i <= j) {
+                    while (keys[i] < pivot) {
+                        i++;
+                    }
+                    while (keys[j] > pivot) {
+                        j--;
+                    }
+                    if (i <= j) {
+                        long temp = keys[i];
+                        keys[i] = keys[j];
+                        keys[j] = temp;
+                        i++;
+                        j--;
+                    }
+                }
+                if (j - lowerIndex < higherIndex - i) {
+                    quickSort(keys, lowerIndex, j);
+                    lowerIndex = i;
+                } else {
+                    quickSort(keys, i, higherIndex);
+                    higherIndex = j;
+                }
+            }
+        }
+    }
+
+    /**
+     * Edges stored outside the Java heap in an {@link OffHeapIntArray}, as
+     * (weight, source, target) records laid out one after another so a swap
+     * touches one place instead of three arrays. Close the store to free it.
+     */
+    public static class OffHeapEdgeStore implements AutoCloseable {
+
+        private static final int WEIGHT = 0;
+        private static final int SOURCE = 1;
+        private static final int TARGET = 2;
+
+        private final OffHeapIntArray records;
+        /**
+         * The number of edges in the store.
+         */
+        public final int size;
+        /**
+         * One more than the largest node id or weight in the store.
+         */
+        public final int bound;
+
+        private OffHeapEdgeStore(int size, int bound) {
+            this.records = new OffHeapIntArray(3L * size);
+            this.size = size;
+            this.bound = bound;
+        }
+
+        /**
+         * Copies the given edges into a new store.
+         *
+         * @param input the given edges.
+         * @return the new store.
+         */
+        public static OffHeapEdgeStore from(EdgeStore input) {
+            OffHeapEdgeStore store = new OffHeapEdgeStore(input.size, input.bound);
+            for (int i = 0; i < input.size; i++) {
+                store.set(i, input.sources[i], input.targets[i], input.weights[i]);
+            }
+            return store;
+        }
+
+        /**
+         * Copies the edges of the given graph into a new store, in source and
+         * then target order, without building an EdgeStore on the heap first.
+         *
+         * @param input the given graph.
+         * @return the new store.
+         */
+        public static OffHeapEdgeStore fromCSR(CSRGraph input) {
+            OffHeapEdgeStore store = new OffHeapEdgeStore(input.edgeCount(), input.n + 1);
+            int count = 0;
+            for (int v = 0; v < input.n; v++) {
+                for (int i = input.offsets.get(v), end = input.offsets.get(v + 1); i < end; i++) {
+                    int target = input.targets.get(i);
+                    if (target > v) {
+                        store.set(count++, v, target, input.weights.get(i));
+                    }
+                }
+            }
+            return store;
+        }
+
+        private void set(int i, int source, int target, int weight) {
+            long record = 3L * i;
+            records.set(record + WEIGHT, weight);
+            records.set(record + SOURCE, source);
+            records.set(record + TARGET, target);
+        }
+
+        public int source(int i) {
+            return records.get(3L * i + SOURCE);
+        }
+
+        public int target(int i) {
+            return records.get(3L * i + TARGET);
+        }
+
+        public int weight(int i) {
+            return records.get(3L * i + WEIGHT);
+        }
+
+        /**
+         * Compares two edges in the store using the order of
+         * {@link Edge#compareTo(Edge)}.
+         */
+        public int compare(int i, int j) {
+            return Edge.compare(weight(i), source(i), target(i), weight(j), source(j), target(j));
+        }
+
+        private void swap(int i, int j) {
+            long a = 3L * i;
+            long b = 3L * j;
+            for (int field = 0; field < 3; field++) {
+                int temp = records.get(a + field);
+                records.set(a + field, records.get(b + field));
+                records.set(b + field, temp);
+            }
+        }
+
+        /**
+         * Sorts the store in place with a quicksort, using no memory beyond
+         * the records themselves and the stack.
+         */
+        public void quickSort() {
+            quickSort(0, size - 1);
+        }
+
+        private void quickSort(int lowerIndex, int higherIndex) {
+            while (lowerIndex < higherIndex) {
+                int i = lowerIndex;
+                int j = higherIndex;
+                int middle = lowerIndex + (higherIndex - lowerIndex) / 2;
+                int pivotSource = source(middle);
+                int pivotTarget = target(middle);
+                int pivotWeight = weight(middle);
+                while (i <= j) {
+                    while (Edge.compare(weight(i), source(i), target(i), pivotWeight, pivotSource, pivotTarget) < 0) {
+                        i++;
+                    }
+                    while (Edge.compare(weight(j), source(j), target(j), pivotWeight, pivotSource, pivotTarget) > 0) {
+                        j--;
+                    }
+                    if (i <= j) {
+                        swap(i, j);
+                        i++;
+                        j--;
+                    }
+                }
+                // Recurse into the smaller side to bound the stack depth.
+                if (j - lowerIndex < higherIndex - i) {
+                    quickSort(lowerIndex, j);
+                    lowerIndex = i;
+                } else {
+                    quickSort(i, higherIndex);
+                    higherIndex = j;
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            records.close();
+        }
+    }
+
+    public static class PrimitiveSortResult implements Result {
+
+        /**
+         * The sorted edges.
+         */
+        public final EdgeStore sortedStore;
+        /**
+         * The sorting method used to sort the edges.
+         */
+        public final PrimitiveSortResult.Type sortType;
+        /**
+         * The time taken to copy and sort the edges, in milliseconds. Like
+         * {@link EdgeSortResult#searchTime} it includes the extraction.
+         */
+        public final long searchTime;
+        /**
+         * The cost of copying the edges to sort.
+         */
+        public final Stage extraction;
+        /**
+         * The cost of sorting the copied edges.
+         */
+        public final Stage sort;
+        /**
+         * The total weight of the sorted edges.
+         */
+        public final long totalWeight;
+
+        // Marked as private to encourage use of static construction method.
+        private PrimitiveSortResult(EdgeStore sortedStore, Type sortType, Stage extraction, Stage sort) {
+            // Given variables
+            this.sortedStore = sortedStore;
+            this.sortType = sortType;
+            this.extraction = extraction;
+            this.sort = sort;
+            // Computed variables
+            this.searchTime = extraction.plus(sort).millis();
+            long totalWeight = 0;
+            for (int i = 0; i < sortedStore.size; i++) {
+                totalWeight += sortedStore.weights[i];
+            }
+            this.totalWeight = totalWeight;
+        }
+
+        /**
+         * Does an insertion sort on a copy of the given edges.
+         *
+         * @param input the given edges.
+         * @return the result of the sort.
+         */
+        public static PrimitiveSortResult doInsertionSort(EdgeStore input) {
+            Stopwatch watch = Stopwatch.start();
+            EdgeStore sortedStore = input.copy();
+            Stage extraction = watch.lap();
+            SortEvent event = SortEvent.start();
+            sortedStore.insertionSort();
+            Stage sort = watch.lap();
+            event.finish(input.bound - 1, sortedStore.size, Type.INSERTION.name() + "_STORE");
+            return new PrimitiveSortResult(sortedStore, Type.INSERTION, extraction, sort);
+        }
+
+        /**
+         * Does a count sort on a copy of the given edges.
+         *
+         * @param input the given edges.
+         * @return the result of the sort.
+         */
+        public static PrimitiveSortResult doCountSort(EdgeStore input) {
+            Stopwatch watch = Stopwatch.start();
+            EdgeStore sortedStore = input.copy();
+            Stage extraction = watch.lap();
+            SortEvent event = SortEvent.start();
+            sortedStore.countSort();
+            Stage sort = watch.lap();
+            event.finish(input.bound - 1, sortedStore.size, Type.COUNT.name() + "_STORE");
+            return new PrimitiveSortResult(sortedStore, Type.COUNT, extraction, sort);
+        }
+
+        /**
+         * Does a quicksort on a copy of the given edges.
+         *
+         * @param input the given edges.
+         * @return the result of the sort.
+         */
+        public static PrimitiveSortResult doQuickSort(EdgeStore input) {
+            Stopwatch watch = Stopwatch.start();
+            EdgeStore sortedStore = input.copy();
+            Stage extraction = watch.lap();
+            SortEvent event = SortEvent.start();
+            sortedStore.quickSort();
+            Stage sort = watch.lap();
+            event.finish(input.bound - 1, sortedStore.size, Type.QUICK.name() + "_STORE");
+            return new PrimitiveSortResult(sortedStore, Type.QUICK, extraction, sort);
+        }
+
+        @Override
+        public StringBuilder appendTo(StringBuilder result) {
+            result.append("===================================\n");
+            result.append("SORTED EDGES WITH EDGE STORE USING ").append(sortType.name).append('\n');
+            if (sortedStore.size <= 10) {
+                for (int i = 0; i < sortedStore.size; i++) {
+                    result.append(sortedStore.sources[i]).append(' ').append(sortedStore.targets[i])
+                            .append(" weight = ").append(sortedStore.weights[i]).append('\n');
+                }
+            }
+            result.append("Total Weight = ").append(totalWeight).append('\n');
+            result.append("Runtime including extraction: ").append(searchTime).append(" milliseconds\n");
+            return result;
+        }
+
+        @Override
+        public void addMetrics(Metrics metrics) {
+            metrics.add("extract", sortType.name() + "_STORE", extraction, -1, -1, -1);
+            metrics.add("sort", sortType.name() + "_STORE", sort, -1, -1, totalWeight);
+        }
+
+        @Override
+        public String toString() {
+            return appendTo(new StringBuilder()).toString();
+        }
+
+        public static enum Type {
+
+            INSERTION("INSERTION SORT"),
+            COUNT("COUNT SORT"),
+            QUICK("QUICKSORT");
+
+            public final String name;
+
+            private Type(String name) {
+                this.name = name;
+            }
+        }
+    }
+
+    /**
+     * Kruskal's algorithm for graphs whose edges do not fit in memory. The
+     * generated edges fill a buffer of fixed size, which is sorted and
+     * written to disk as a run each time it is full. The runs are then
+     * merged through buffered channels and the merged stream goes straight
+     * into a disjoint set, stopping once the tree is complete. Only the
+     * buffer, the disjoint set and one read buffer per run are held in
+     * memory, whatever the number of edges.
+     *
+     * Edges are sampled with the same random sequence as
+     * {@link GenerationResult#generate}, so the tree is the one the in
+     * memory modes build for the same parameters.
+     */
+    public static class ExternalKruskal implements Result {
+
+        /**
+         * The bytes a buffered edge takes, counting the keys of the sort.
+         */
+        private static final int EDGE_BYTES = 20;
+        /**
+         * The bytes of an edge in a run file.
+         */
+        private static final int RECORD_BYTES = 12;
+        /**
+         * The size of the buffer read from or written to each run.
+         */
+        private static final int IO_BUFFER = 1 << 16;
+        /**
+         * The most runs merged at once. More runs are merged in passes.
+         */
+        private static final int MAX_FAN_IN = 64;
+
+        public final int n;
+        public final int seed;
+        public final double p;
+        /**
+         * The number of generated edges, including any repair edges.
+         */
+        public final long edgeCount;
+        /**
+         * The number of sorted runs written while generating.
+         */
+        public final int runs;
+        public final int attempts;
+        public final int repairEdges;
+        public final long totalWeight;
+        /**
+         * The cost of generating the edges and writing the sorted runs.
+         */
+        public final Stage generation;
+        /**
+         * The tree, built while merging the runs.
+         */
+        public final PrimitiveMSTResult tree;
+
+        // Marked as private to encourage use of static construction method.
+        private ExternalKruskal(int n, int seed, double p, long edgeCount, int runs, long totalWeight, int attempts, int repairEdges,
+                Stage generation, PrimitiveMSTResult tree) {
+            this.n = n;
+            this.seed = seed;
+            this.p = p;
+            this.edgeCount = edgeCount;
+            this.runs = runs;
+            this.attempts = attempts;
+            this.repairEdges = repairEdges;
+            this.totalWeight = totalWeight;
+            this.generation = generation;
+            this.tree = tree;
+        }
+
+        /**
+         * Generates a graph and builds its minimum spanning tree out of core.
+         *
+         * @param n the number of nodes in the graph.
+         * @param seed the seed for the random.
+         * @param p the probability for an edge to be made between two nodes.
+         * @param sampling how to decide which node pairs get an edge, dense
+         * or sparse.
+         * @param connectivity how to handle a disconnected graph.
+         * @param budget the bytes to buffer edges in before spilling a run.
+         * @param directory the directory to write runs to.
+         * @return the result.
+         * @throws IOException if a run can not be written or read.
+         */
+        public static ExternalKruskal run(int n, int seed, double p, GenerationResult.Sampling sampling,
+                GenerationResult.Connectivity connectivity, long budget, Path directory) throws IOException {
+            if (sampling == GenerationResult.Sampling.PARALLEL) {
+                throw new IllegalArgumentException("parallel sampling can not run out of core");
+            }
+            Path runDirectory = Files.createTempDirectory(directory, "mst-runs");
+            int capacity = (int) Math.max(1024, Math.min(Integer.MAX_VALUE - 8, budget / EDGE_BYTES));
+            RunWriter writer = new RunWriter(n, capacity, runDirectory);
+            ExternalKruskal result;
+            try {
+                Stopwatch watch = Stopwatch.start();
+                Random randomA = new Random(seed);
+                Random randomB = new Random(seed * 2);
+                DisjointSet sets;
+                int attempts = 0;
+                do {
+                    attempts++;
+                    GenerationEvent event = GenerationEvent.start();
+                    sets = new DisjointSet(n);
+                    writer.clear();
+                    if (sampling == GenerationResult.Sampling.SPARSE) {
+                        GenerationResult.generateSparse(n, p, randomA, randomB, writer, sets);
+                    } else {
+                        GenerationResult.generateDense(n, p, randomA, randomB, writer, sets);
+                    }
+                    event.finish(n, p, attempts, (int) Math.min(Integer.MAX_VALUE, writer.edgeCount + writer.size), sampling);
+                } while (sets.count() != 1 && connectivity == GenerationResult.Connectivity.RESTART);
+                // Connect the components the way GenerationResult does, the
+                // order of the edges does not matter once they are sorted.
+                int repairEdges = sets.count() - 1;
+                int root = sets.find(0);
+                for (int v = 1; v < n && sets.count() > 1; v++) {
+                    if (sets.find(v) != root) {
+                        sets.union(root, v);
+                        root = sets.find(0);
+                        writer.add(0, v, randomB.nextInt(n) + 1);
+                    }
+                }
+                writer.flush();
+                Stage generation = watch.lap();
+                int runs = writer.runs.size();
+                PrimitiveMSTResult tree = merge(n, writer.runs, runDirectory);
+                result = new ExternalKruskal(n, seed, p, writer.edgeCount, runs, writer.totalWeight, attempts, repairEdges, generation, tree);
+            } catch (Throwable ex) {
+                // Keep the original failure, noting any cleanup failure on it.
+                try {
+                    deleteRuns(runDirectory);
+                } catch (IOException cleanup) {
+                    ex.addSuppressed(cleanup);
+                }
+                throw ex;
+            }
+            deleteRuns(runDirectory);
+            return result;
+        }
+
+        /**
+         * Deletes every file left in the given run directory, including
+         * partly written merge output, and then the directory itself.
+         *
+         * @throws IOException if anything could not be deleted, with any
+         * further failures suppressed on it.
+         */
+        private static void deleteRuns(Path directory) throws IOException {
+            IOException failure = null;
+            try (DirectoryStream<Path> runs = Files.newDirectoryStream(directory)) {
+                for (Path run : runs) {
+                    try {
+                        Files.deleteIfExists(run);
+                    } catch (IOException ex) {
+                        if (failure == null) {
+                            failure = ex;
+                        } else {
+                            failure.addSuppressed(ex);
+                        }
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            Files.deleteIfExists(directory);
+        }
+
+        /**
+         * Merges the runs, first in passes of {@link #MAX_FAN_IN} until few
+         * enough are left, then once more into Kruskal's algorithm.
+         */
+        private static PrimitiveMSTResult merge(int n, ArrayList<Path> runs, Path directory) throws IOException {
+            Stopwatch watch = Stopwatch.start();
+            int merged = 0;
+            while (runs.size() > MAX_FAN_IN) {
+                ArrayList<Path> next = new ArrayList<Path>();
+                for (int i = 0; i < runs.size(); i += MAX_FAN_IN) {
+                    List<Path> group = runs.subList(i, Math.min(runs.size(), i + MAX_FAN_IN));
+                    Path output = directory.resolve("merge-" + merged++ + ".run");
+                    try (RunMerger merger = new RunMerger(group);
+                            FileChannel channel = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                        ByteBuffer buffer = ByteBuffer.allocateDirect(IO_BUFFER - IO_BUFFER % RECORD_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                        while (merger.next()) {
+                            if (!buffer.hasRemaining()) {
+                                drain(channel, buffer);
+                            }
+                            buffer.putInt(merger.source).putInt(merger.target).putInt(merger.weight);
+                        }
+                        drain(channel, buffer);
+                    }
+                    for (Path run : group) {
+                        Files.delete(run);
+                    }
+                    next.add(output);
+                }
+                runs.clear();
+                runs.addAll(next);
+            }
+            int[] sources = new int[n - 1];
+            int[] targets = new int[n - 1];
+            int[] weights = new int[n - 1];
+            DisjointSet sets = new DisjointSet(n);
+            int accepted = 0;
+            try (RunMerger merger = new RunMerger(runs)) {
+                while (accepted < sources.length && merger.next()) {
+                    if (sets.union(merger.source, merger.target)) {
+                        sources[accepted] = merger.source;
+                        targets[accepted] = merger.target;
+                        weights[accepted] = merger.weight;
+                        accepted++;
+                    }
+                }
+            }
+            return new PrimitiveMSTResult(Arrays.copyOf(sources, accepted), Arrays.copyOf(targets, accepted),
+                    Arrays.copyOf(weights, accepted), MSTResult.Type.KRUSKAL, null, "EXTERNAL MERGE", watch.lap());
+        }
+
+        private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public StringBuilder appendTo(StringBuilder result) {
+            result.append("TEST: n=").append(n).append(", seed=").append(seed).append(", p=").append(p).append('\n');
+            result.append("Time to generate the graph: ").append(generation.millis()).append(" milliseconds\n");
+            result.append("Edges: ").append(edgeCount).append(" in ").append(runs).append(runs == 1 ? " sorted run\n" : " sorted runs\n");
+            result.append("Total Weight = ").append(totalWeight).append('\n');
+            return result;
+        }
+
+        @Override
+        public void addMetrics(Metrics metrics) {
+            metrics.add("generate", "EXTERNAL", generation, attempts, repairEdges, totalWeight);
+        }
+
+        @Override
+        public String toString() {
+            return appendTo(new StringBuilder()).toString();
+        }
+
+        /**
+         * An edge buffer that sorts itself and writes a run each time it is
+         * full.
+         */
+        private static class RunWriter extends GenerationResult.EdgeBuffer {
+
+            private final int n;
+            private final Path directory;
+            private final ArrayList<Path> runs = new ArrayList<Path>();
+            private long edgeCount;
+            private long totalWeight;
+
+            private RunWriter(int n, int capacity, Path directory) {
+                this.n = n;
+                this.directory = directory;
+                this.sources = new int[capacity];
+                this.targets = new int[capacity];
+                this.weights = new int[capacity];
+            }
+
+            @Override
+            void add(int source, int target, int weight) {
+                if (size == sources.length) {
+                    try {
+                        flush();
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                }
+                super.add(source, target, weight);
+            }
+
+            @Override
+            void clear() {
+                super.clear();
+                delete();
+                runs.clear();
+                edgeCount = 0;
+                totalWeight = 0;
+            }
+
+            /**
+             * Sorts the buffered edges and writes them as a run.
+             */
+            private void flush() throws IOException {
+                if (size == 0) {
+                    return;
+                }
+                EdgeStore store = new EdgeStore(sources, targets, weights, size, n + 1);
+                store.quickSort();
+                Path run = directory.resolve("run-" + runs.size() + ".run");
+                try (FileChannel channel = FileChannel.open(run, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING)) {
+                    ByteBuffer buffer = ByteBuffer.allocateDirect(IO_BUFFER - IO_BUFFER % RECORD_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                    for (int i = 0; i < size; i++) {
+                        if (!buffer.hasRemaining()) {
+                            drain(channel, buffer);
+                        }
+                        buffer.putInt(sources[i]).putInt(targets[i]).putInt(weights[i]);
+                        totalWeight += weights[i];
+                    }
+                    drain(channel, buffer);
+                }
+                runs.add(run);
+                edgeCount += size;
+                size = 0;
+            }
+
+            private void delete() {
+                for (Path run : runs) {
+                    try {
+                        Files.deleteIfExists(run);
+                    } catch (IOException ex) {
+                        // Left for the temporary directory to clean up.
+                    }
+                }
+            }
+        }
+
+        /**
+         * Merges sorted runs into one sorted stream with a binary heap of the
+         * current edge of each run.
+         */
+        private static class RunMerger implements AutoCloseable {
+
+            private final FileChannel[] channels;
+            private final ByteBuffer[] buffers;
+            private final int[] heapSources;
+            private final int[] heapTargets;
+            private final int[] heapWeights;
+            private final int[] heapRuns;
+            private int heapSize;
+            /**
+             * The edge returned by the last call to {@link #next}.
+             */
+            int source;
+            int target;
+            int weight;
+
+            private RunMerger(List<Path> runs) throws IOException {
+                int k = runs.size();
+                channels = new FileChannel[k];
+                buffers = new ByteBuffer[k];
+                heapSources = new int[k];
+                heapTargets = new int[k];
+                heapWeights = new int[k];
+                heapRuns = new int[k];
+                try {
+                    for (int i = 0; i < k; i++) {
+                        channels[i] = FileChannel.open(runs.get(i), StandardOpenOption.READ);
+                        buffers[i] = ByteBuffer.allocateDirect(IO_BUFFER - IO_BUFFER % RECORD_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                        buffers[i].limit(0);
+                        if (fill(i)) {
+                            push(i);
+                        }
+                    }
+                } catch (IOException ex) {
+                    close();
+                    throw ex;
+                }
+            }
+
+            /**
+             * Makes sure the buffer of the given run holds a whole edge.
+             *
+             * @return false if the run is exhausted.
+             */
+            private boolean fill(int run) throws IOException {
+                ByteBuffer buffer = buffers[run];
+                if (buffer.remaining() >= RECORD_BYTES) {
+                    return true;
+                }
+                buffer.compact();
+                while (buffer.position() < RECORD_BYTES && channels[run].read(buffer) >= 0) {
+                    // Keep reading until a whole edge is in or the run ends.
+                }
+                buffer.flip();
+                return buffer.remaining() >= RECORD_BYTES;
+            }
+
+            private void push(int run) {
+                ByteBuffer buffer = buffers[run];
+                int s = buffer.getInt();
+                int t = buffer.getInt();
+                int w = buffer.getInt();
+                int i = heapSize++;
+                while (i > 0) {
+                    int parent = (i - 1) / 2;
+                    if (Edge.compare(w, s, t, heapWeights[parent], heapSources[parent], heapTargets[parent]) >= 0) {
+                        break;
+                    }
+                    set(i, parent);
+                    i = parent;
+                }
+                heapSources[i] = s;
+                heapTargets[i] = t;
+                heapWeights[i] = w;
+                heapRuns[i] = run;
+            }
+
+            /**
+             * Moves to the next edge in sorted order.
+             *
+             * @return false once every run is exhausted.
+             */
+            boolean next() throws IOException {
+                if (heapSize == 0) {
+                    return false;
+                }
+                source = heapSources[0];
+                target = heapTargets[0];
+                weight = heapWeights[0];
+                int run = heapRuns[0];
+                // Take the last entry out and sift it down from the root.
+                heapSize--;
+                int s = heapSources[heapSize];
+                int t = heapTargets[heapSize];
+                int w = heapWeights[heapSize];
+                int r = heapRuns[heapSize];
+                int i = 0;
+                while (true) {
+                    int child = 2 * i + 1;
+                    if (child >= heapSize) {
+                        break;
+                    }
+                    if (child + 1 < heapSize && Edge.compare(heapWeights[child + 1], heapSources[child + 1], heapTargets[child + 1],
+                            heapWeights[child], heapSources[child], heapTargets[child]) < 0) {
+                        child++;
+                    }
+                    if (Edge.compare(w, s, t, heapWeights[child], heapSources[child], heapTargets[child]) <= 0) {
+                        break;
+                    }
+                    set(i, child);
+                    i = child;
+                }
+                heapSources[i] = s;
+                heapTargets[i] = t;
+                heapWeights[i] = w;
+                heapRuns[i] = r;
+                if (fill(run)) {
+                    push(run);
+                }
+                return true;
+            }
+
+            private void set(int to, int from) {
+                heapSources[to] = heapSources[from];
+                heapTargets[to] = heapTargets[from];
+                heapWeights[to] = heapWeights[from];
+                heapRuns[to] = heapRuns[from];
+            }
+
+            @Override
+            public void close() throws IOException {
+                IOException failure = null;
+                for (FileChannel channel : channels) {
+                    if (channel == null) {
+                        continue;
+                    }
+                    try {
+                        channel.close();
+                    } catch (IOException ex) {
+                        failure = ex;
+                    }
+                }
+                if (failure != null) {
+                    throw failure;
+                }
+            }
+        }
+    }
+
+    /**
+     * A binary file holding a generated graph in compressed sparse row form
+     * along with its sorted edges, read back through memory mapped buffers
+     * so nothing is copied onto the heap. Sections larger than a single
+     * mapping can hold are mapped a page at a time.
+     *
+     * The file is little endian: a 72 byte header, then the offsets,
+     * targets, weights and predecessors arrays of the CSRGraph, then the
+     * sources, targets and weights arrays of the sorted edges.
+     */
+    public static class GraphFile {
+
+        private static final int MAGIC = 0x4D535447;
+        private static final int VERSION = 3;
+        private static final int HEADER_SIZE = 72;
+
+        public final int n;
+        public final int seed;
+        public final double p;
+        public final GenerationResult.Sampling sampling;
+        public final GenerationResult.Connectivity connectivity;
+        public final int attempts;
+        public final int nodesReached;
+        public final long totalWeight;
+        /**
+         * The time taken to generate the graph and to search it when it was
+         * saved, in nanoseconds.
+         */
+        public final long generationNanos;
+        public final long searchNanos;
+        /**
+         * The sections of the file, as views over the mapped file.
+         */
+        public final MappedIntArray offsets;
+        public final MappedIntArray targets;
+        public final MappedIntArray weights;
+        public final MappedIntArray predecessors;
+        public final MappedIntArray sortedSources;
+        public final MappedIntArray sortedTargets;
+        public final MappedIntArray sortedWeights;
+
+        // Marked as private to encourage use of static construction method.
+        private GraphFile(ByteBuffer header, MappedIntArray[] sections) {
+            this.n = header.getInt(8);
+            this.seed = header.getInt(12);
+            this.p = header.getDouble(16);
+            this.attempts = header.getInt(24);
+            this.nodesReached = header.getInt(28);
+            this.totalWeight = header.getLong(32);
+            this.generationNanos = header.getLong(40);
+            this.searchNanos = header.getLong(56);
+            this.sampling = GenerationResult.Sampling.values()[header.getInt(64)];
+            this.connectivity = GenerationResult.Connectivity.values()[header.getInt(68)];
+            this.offsets = sections[0];
+            this.targets = sections[1];
+            this.weights = sections[2];
+            this.predecessors = sections[3];
+            this.sortedSources = sections[4];
+            this.sortedTargets = sections[5];
+            this.sortedWeights = sections[6];
+        }
+
+        /**
+         * Writes the given graph and its sorted edges to a file, replacing
+         * anything already there. The file is written under a temporary name
+         * and moved into place, so graphs still mapped from the old file keep
+         * reading it and no reader sees a file that is half written.
+         *
+         * @param path the file to write.
+         * @param graph the graph.
+         * @param sorted the edges of the graph, sorted.
+         * @throws IOException if the file can not be written.
+         */
+        public static void write(Path path, CSRGraph graph, SortedEdges sorted) throws IOException {
+            Path directory = path.toAbsolutePath().getParent();
+            if (!Files.isDirectory(directory)) {
+                // Name the file asked for rather than its temporary file.
+                throw new NoSuchFileException(path.toString());
+            }
+            Path temporary = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+            try {
+                writeSections(temporary, graph, sorted);
+                Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException | RuntimeException ex) {
+                try {
+                    Files.deleteIfExists(temporary);
+                } catch (IOException cleanup) {
+                    ex.addSuppressed(cleanup);
+                }
+                throw ex;
+            }
+        }
+
+        private static void writeSections(Path path, CSRGraph graph, SortedEdges sorted) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+                header.order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(0, MAGIC);
+                header.putInt(4, VERSION);
+                header.putInt(8, graph.n);
+                header.putInt(12, graph.seed);
+                header.putDouble(16, graph.p);
+                header.putInt(24, graph.attempts);
+                header.putInt(28, graph.nodesReached);
+                header.putLong(32, graph.totalWeight);
+                header.putLong(40, graph.generation.nanos);
+                header.putInt(48, (int) graph.targets.length());
+                header.putInt(52, sorted.size);
+                header.putLong(56, graph.search.nanos);
+                header.putInt(64, graph.sampling.ordinal());
+                header.putInt(68, graph.connectivity.ordinal());
+                IntArray[] sections = {graph.offsets, graph.targets, graph.weights, graph.predecessors,
+                    sorted.sources, sorted.targets, sorted.weights};
+                int[] lengths = sectionLengths(graph.n, (int) graph.targets.length(), sorted.size);
+                long position = HEADER_SIZE;
+                for (int i = 0; i < sections.length; i++) {
+                    MappedIntArray.map(channel, FileChannel.MapMode.READ_WRITE, position, lengths[i]).putAll(sections[i]);
+                    position += sectionBytes(lengths[i]);
+                }
+                header.force();
+            }
+        }
+
+        /**
+         * Maps the given graph file for reading.
+         *
+         * @param path the file to read.
+         * @return the mapped file.
+         * @throws IOException if the file can not be read or is not a graph
+         * file.
+         */
+        public static GraphFile open(Path path) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                if (channel.size() < HEADER_SIZE) {
+                    throw new IOException(path + " is not a graph file");
+                }
+                ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                    throw new IOException(path + " is not a graph file");
+                }
+                if (Integer.compareUnsigned(header.getInt(64), GenerationResult.Sampling.values().length) >= 0
+                        || Integer.compareUnsigned(header.getInt(68), GenerationResult.Connectivity.values().length) >= 0) {
+                    throw new IOException(path + " is not a graph file");
+                }
+                int[] lengths = sectionLengths(header.getInt(8), header.getInt(48), header.getInt(52));
+                MappedIntArray[] sections = new MappedIntArray[lengths.length];
+                long position = HEADER_SIZE;
+                for (int i = 0; i < lengths.length; i++) {
+                    if (lengths[i] < 0) {
+                        throw new IOException(path + " is not a graph file");
+                    }
+                    if (position + sectionBytes(lengths[i]) > channel.size()) {
+                        throw new IOException(path + " is truncated");
+                    }
+                    sections[i] = MappedIntArray.map(channel, FileChannel.MapMode.READ_ONLY, position, lengths[i]);
+                    position += sectionBytes(lengths[i]);
+                }
+                // The mappings stay valid after the channel is closed.
+                return new GraphFile(header, sections);
+            }
+        }
+
+        private static int[] sectionLengths(int n, int csrLength, int sortedSize) {
+            return new int[]{n + 1, csrLength, csrLength, n, sortedSize, sortedSize, sortedSize};
+        }
+
+        private static long sectionBytes(int length) {
+            return (long) length * Integer.BYTES;
+        }
+
+        /**
+         * @return true if this file holds the graph for the given parameters.
+         */
+        public boolean matches(int n, int seed, double p, GenerationResult.Sampling sampling, GenerationResult.Connectivity connectivity) {
+            return this.n == n && this.seed == seed && Double.compare(this.p, p) == 0
+                    && this.sampling == sampling && this.connectivity == connectivity;
+        }
+
+        /**
+         * @return the graph, reading its arrays straight from the file.
+         */
+        public CSRGraph toCSRGraph() {
+            // Allocation is not saved, so the loaded stages report it as unknown.
+            return new CSRGraph(n, seed, p, sampling, connectivity, totalWeight, new Stage(generationNanos, -1), new Stage(searchNanos, -1), attempts,
+                    offsets, targets, weights, predecessors, nodesReached);
+        }
+
+        /**
+         * @return the sorted edges, read straight from the file.
+         */
+        public SortedEdges sortedEdges() {
+            return new SortedEdges(sortedSources, sortedTargets, sortedWeights, (int) sortedSources.length());
+        }
+    }
+
+    public static class PrimitiveMSTResult implements Result {
+
+        /**
+         * The source node of each tree edge.
+         */
+        public final int[] sources;
+        /**
+         * The target node of each tree edge.
+         */
+        public final int[] targets;
+        /**
+         * The weight of each tree edge.
+         */
+        public final int[] weights;
+        /**
+         * The algorithm used to build the tree.
+         */
+        public final MSTResult.Type mstType;
+        /**
+         * The sort result the tree was built from, or null if the algorithm
+         * sorted the edges itself or does not sort them.
+         */
+        public final PrimitiveSortResult sortResult;
+        /**
+         * A description of the edges the tree was built from.
+         */
+        public final String input;
+        /**
+         * The time taken to build the tree, including any sort it did itself,
+         * in milliseconds.
+         */
+        public final long runtime;
+        /**
+         * The cost of building the tree, including any sort it did itself.
+         */
+        public final Stage stage;
+        /**
+         * The total weight of the tree.
+         */
+        public final long totalWeight;
+
+        // Marked as private to encourage use of static construction method.
+        private PrimitiveMSTResult(int[] sources, int[] targets, int[] weights, MSTResult.Type mstType, PrimitiveSortResult sortResult, String input, Stage stage) {
+            // Given variables
+            this.sources = sources;
+            this.targets = targets;
+            this.weights = weights;
+            this.mstType = mstType;
+            this.sortResult = sortResult;
+            this.input = input;
+            this.stage = stage;
+            // Computed variables
+            this.runtime = stage.millis();
+            long totalWeight = 0;
+            for (int i = 0; i < weights.length; i++) {
+                totalWeight += weights[i];
+            }
+            this.totalWeight = totalWeight;
+        }
+
+        /**
+         * Runs Kruskal's algorithm directly over the given compressed graph.
+         *
+         * @param input the given graph.
+         * @return the minimum spanning tree.
+         */
+        public static PrimitiveMSTResult doKruskal(CSRGraph input) {
+            Stopwatch watch = Stopwatch.start();
+            long[] keys = input.sortEdges();
+            int[] sources = new int[input.n - 1];
+            int[] targets = new int[input.n - 1];
+            int[] weights = new int[input.n - 1];
+            DisjointSet sets = new DisjointSet(input.n);
+            int accepted = 0;
+            for (int i = 0; i < keys.length && accepted < sources.length; i++) {
+                int index = (int) keys[i];
+                int source = input.sourceOf(index);
+                int target = input.targets.get(index);
+                if (sets.union(source, target)) {
+                    sources[accepted] = source;
+                    targets[accepted] = target;
+                    weights[accepted] = input.weights.get(index);
+                    accepted++;
+                }
+            }
+            return new PrimitiveMSTResult(Arrays.copyOf(sources, accepted), Arrays.copyOf(targets, accepted),
+                    Arrays.copyOf(weights, accepted), MSTResult.Type.KRUSKAL, null, "CSR", watch.lap());
+        }
+
+        /**
+         * Runs Kruskal's algorithm over the given sorted edge store, stopping
+         * once n - 1 edges have been accepted.
+         *
+         * @param n the number of nodes in the graph.
+         * @param sortResult the edges of the graph, sorted by weight.
+         * @return the minimum spanning tree.
+         */
+        public static PrimitiveMSTResult doKruskal(int n, PrimitiveSortResult sortResult) {
+            return doKruskal(n, sortResult.sortedStore, sortResult);
+        }
+
+        /**
+         * Runs Kruskal's algorithm over edges that are already sorted, such
+         * as the ones saved in a graph file, reading them where they are.
+         *
+         * @param n the number of nodes in the graph.
+         * @param edges the edges of the graph, sorted by weight.
+         * @return the minimum spanning tree.
+         */
+        public static PrimitiveMSTResult doKruskal(int n, SortedEdges edges) {
+            Stopwatch watch = Stopwatch.start();
+            int[] sources = new int[n - 1];
+            int[] targets = new int[n - 1];
+            int[] weights = new int[n - 1];
+            DisjointSet sets = new DisjointSet(n);
+            int accepted = 0;
+            for (int i = 0; i < edges.size && accepted < sources.length; i++) {
+                int source = edges.sources.get(i);
+                int target = edges.targets.get(i);
+                if (sets.union(source, target)) {
+                    sources[accepted] = source;
+                    targets[accepted] = target;
+                    weights[accepted] = edges.weights.get(i);
+                    accepted++;
+                }
+            }
+            return new PrimitiveMSTResult(Arrays.copyOf(sources, accepted), Arrays.copyOf(targets, accepted),
+                    Arrays.copyOf(weights, accepted), MSTResult.Type.KRUSKAL, null, "PRESORTED EDGE STORE", watch.lap());
+        }
+
+        private static PrimitiveMSTResult doKruskal(int n, EdgeStore store, PrimitiveSortResult sortResult) {
+            Stopwatch watch = Stopwatch.start();
+            int[] sources = new int[n - 1];
+            int[] targets = new int[n - 1];
+            int[] weights = new int[n - 1];
+            DisjointSet sets = new DisjointSet(n);
+            int accepted = 0;
+            for (int i = 0; i < store.size && accepted < sources.length; i++) {
+                if (sets.union(store.sources[i], store.targets[i])) {
+                    sources[accepted] = store.sources[i];
+                    targets[accepted] = store.targets[i];
+                    weights[accepted] = store.weights[i];
+                    accepted++;
+                }
+            }
+            return new PrimitiveMSTResult(Arrays.copyOf(sources, accepted), Arrays.copyOf(targets, accepted),
+                    Arrays.copyOf(weights, accepted), MSTResult.Type.KRUSKAL, sortResult, "EDGE STORE USING " + sortResult.sortType.name, watch.lap());
+        }
+
+        /**
+         * Sorts the given off heap edges in place and runs Kruskal's
+         * algorithm over them. The runtime includes the sort.
+         *
+         * @param n the number of nodes in the graph.
+         * @param store the edges of the graph, sorted in place.
+         * @return the minimum spanning tree.
+         */
+        public static PrimitiveMSTResult doKruskal(int n, OffHeapEdgeStore store) {
+            Stopwatch watch = Stopwatch.start();
+            SortEvent event = SortEvent.start();
+            store.quickSort();
+            event.finish(store.bound - 1, store.size, PrimitiveSortResult.Type.QUICK.name() + "_OFF_HEAP");
+            int[] sources = new int[n - 1];
+            int[] targets = new int[n - 1];
+            int[] weights = new int[n - 1];
+            DisjointSet sets = new DisjointSet(n);
+            int accepted = 0;
+            for (int i = 0; i < store.size && accepted < sources.length; i++) {
+                int source = store.source(i);
+                int target = store.target(i);
+                if (sets.union(source, target)) {
+                    sources[accepted] = source;
+                    targets[accepted] = target;
+                    weights[accepted] = store.weight(i);
+                    accepted++;
+                }
+            }
+            return new PrimitiveMSTResult(Arrays.copyOf(sources, accepted), Arrays.copyOf(targets, accepted),
+                    Arrays.copyOf(weights, accepted), MSTResult.Type.KRUSKAL, null, "OFF-HEAP EDGE STORE USING QUICKSORT", watch.lap());
+        }
+
+        /**
+         * Runs Filter-Kruskal directly over the edges of the given compressed
+         * graph, as {@link MSTResult#doFilterKruskal} does over edge objects.
+         *
+         * @param input the given graph.
+         * @return the minimum spanning tree.
+         */
+        public static PrimitiveMSTResult doFilterKruskal(CSRGraph input) {
+            Stopwatch watch = Stopwatch.start();
+            FilterKruskal state = new FilterKruskal(EdgeStore.fromCSR(input), input.n);
+            state.run(0, state.store.size);
+            int accepted = state.accepted;
+            return new PrimitiveMSTResult(Arrays.copyOf(state.sources, accepted), Arrays.copyOf(state.targets, accepted),
+                    Arrays.copyOf(state.weights, accepted), MSTResult.Type.FILTER_KRUSKAL, null, "CSR", watch.lap());
+        }
+
+        /**
+         * The state of a Filter-Kruskal run over an edge store.
+         */
+        private static class FilterKruskal {
+
+            /**
+             * Ranges this small are sorted and scanned directly.
+             */
+            private static final int THRESHOLD = 256;
+
+            private final EdgeStore store;
+            private final DisjointSet sets;
+            private final int[] sources;
+            private final int[] targets;
+            private final int[] weights;
+            // A fixed seed keeps the pivots, and so the work, repeatable.
+            private final SplittableRandom random = new SplittableRandom(0);
+            private int accepted;
+
+            private FilterKruskal(EdgeStore store, int n) {
+                this.store = store;
+                this.sets = new DisjointSet(n);
+                this.sources = new int[n - 1];
+                this.targets = new int[n - 1];
+                this.weights = new int[n - 1];
+            }
+
+            private void run(int lower, int upper) {
+                // Recurse on the light side, loop on the heavy side.
+                while (upper - lower > THRESHOLD && accepted < sources.length) {
+                    int pivot = pivot(lower, upper);
+                    int pivotSource = store.sources[pivot];
+                    int pivotTarget = store.targets[pivot];
+                    int pivotWeight = store.weights[pivot];
+                    int split = lower;
+                    for (int i = lower; i < upper; i++) {
+                        if (Edge.compare(store.weights[i], store.sources[i], store.targets[i], pivotWeight, pivotSource, pivotTarget) <= 0) {
+                            store.swap(i, split++);
+                        }
+                    }
+                    if (split == upper) {
+                        // The pivot was the heaviest edge, sort the range.
+                        break;
+                    }
+                    run(lower, split);
+                    lower = split;
+                    upper = filter(split, upper);
+                }
+                if (accepted == sources.length) {
+                    return;
+                }
+                store.quickSort(lower, upper - 1);
+                for (int i = lower; i < upper && accepted < sources.length; i++) {
+                    if (sets.union(store.sources[i], store.targets[i])) {
+                        sources[accepted] = store.sources[i];
+                        targets[accepted] = store.targets[i];
+                        weights[accepted] = store.weights[i];
+                        accepted++;
+                    }
+                }
+            }
+
+            /**
+             * @return the index of the median of three edges sampled from the
+             * range.
+             */
+            private int pivot(int lower, int upper) {
+                int a = random.nextInt(lower, upper);
+                int b = random.nextInt(lower, upper);
+                int c = random.nextInt(lower, upper);
+                if (store.compare(a, b) > 0) {
+                    int temp = a;
+                    a = b;
+                    b = temp;
+                }
+                return store.compare(c, a) <= 0 ? a : store.compare(c, b) >= 0 ? b : c;
+            }
+
+            /**
+             * Moves the edges that still join two components to the front of
+             * the range.
+             *
+             * @return the end of the kept edges.
+             */
+            private int filter(int lower, int upper) {
+                int kept = lower;
+                for (int i = lower; i < upper; i++) {
+                    if (sets.find(store.sources[i]) != sets.find(store.targets[i])) {
+                        store.sources[kept] = store.sources[i];
+                        store.targets[kept] = store.targets[i];
+                        store.weights[kept] = store.weights[i];
+                        kept++;
+                    }
+                }
+                return kept;
+            }
+        }
+
+        /**
+         * Runs Prim's algorithm directly over the given compressed graph using
+         * an indexed binary heap.
+         *
+         * @param input the given graph.
+         * @return the minimum spanning tree.
+         */
+        public static PrimitiveMSTResult doPrim(CSRGraph input) {
+            Stopwatch watch = Stopwatch.start();
+            int n = input.n;
+            int[] sources = new int[n - 1];
+            int[] targets = new int[n - 1];
+            int[] weights = new int[n - 1];
+            boolean[] inTree = new boolean[n];
+            MSTResult.IndexedHeap heap = new MSTResult.IndexedHeap(n);
+            int accepted = 0;
+            int current = 0;
+            while (true) {
+                inTree[current] = true;
+                for (int i = input.offsets.get(current), end = input.offsets.get(current + 1); i < end; i++) {
+                    int target = input.targets.get(i);
+                    if (!inTree[target]) {
+                        heap.offer(target, input.weights.get(i), current);
+                    }
+                }
+                if (heap.isEmpty()) {
+                    break;
+                }
+                current = heap.poll();
+                int from = heap.from(current);
+                sources[accepted] = Math.min(from, current);
+                targets[accepted] = Math.max(from, current);
+                weights[accepted] = heap.weight(current);
+                accepted++;
+            }
+            return new PrimitiveMSTResult(Arrays.copyOf(sources, accepted), Arrays.copyOf(targets, accepted),
+                    Arrays.copyOf(weights, accepted), MSTResult.Type.PRIM_LIST, null, "CSR", watch.lap());
+        }
+
+        @Override
+        public StringBuilder appendTo(StringBuilder result) {
+            result.append("===================================\n");
+            result.append(mstType.name).append(" WITH ").append(input).append('\n');
+            if (sources.length <= 10) {
+                for (int i = 0; i < sources.length; i++) {
+                    result.append(sources[i]).append(' ').append(targets[i]).append(" weight = ").append(weights[i]).append('\n');
+                }
+            }
+            result.append("Total Weight = ").append(totalWeight).append('\n');
+            result.append("Runtime: ").append(runtime).append(" milliseconds\n");
+            if (sortResult != null) {
+                result.append("Runtime including sort: ").append(sortResult.searchTime + runtime).append(" milliseconds\n");
+            }
+            return result;
+        }
+
+        @Override
+        public void addMetrics(Metrics metrics) {
+            metrics.add("mst", mstType.name() + ":" + input.replace(' ', '_'), stage, -1, -1, totalWeight);
+        }
+
+        @Override
+        public String toString() {
+            return appendTo(new StringBuilder()).toString();
+        }
+    }
+
+    /**
+     * The wall time and allocation of one stage of a test case. Allocation
+     * is counted on the thread that ran the stage only, so work it handed to
+     * a pool is not included.
+     */
+    public static class Stage {
+
+        /**
+         * The wall time of the stage, in nanoseconds.
+         */
+        public final long nanos;
+        /**
+         * The bytes allocated by the thread that ran the stage, or -1 if the
+         * JVM can not measure it.
+         */
+        public final long allocatedBytes;
+
+        public Stage(long nanos, long allocatedBytes) {
+            this.nanos = nanos;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        /**
+         * @return the wall time of the stage, in milliseconds.
+         */
+        public long millis() {
+            return nanos / 1000000;
+        }
+
+        /**
+         * @return the cost of this stage followed by the given one.
+         */
+        public Stage plus(Stage other) {
+            return new Stage(nanos + other.nanos,
+                    allocatedBytes < 0 || other.allocatedBytes < 0 ? -1 : allocatedBytes + other.allocatedBytes);
+        }
+    }
+
+    /**
+     * Measures consecutive stages on the current thread.
+     */
+    public static class Stopwatch {
+
+        private static final com.sun.management.ThreadMXBean ALLOCATION = allocationBean();
+
+        private long time;
+        private long bytes;
+
+        private Stopwatch() {
+            this.time = System.nanoTime();
+            this.bytes = allocatedBytes();
+        }
+
+        private static com.sun.management.ThreadMXBean allocationBean() {
+            java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            if (threads instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean allocation = (com.sun.management.ThreadMXBean) threads;
+                if (allocation.isThreadAllocatedMemorySupported() && allocation.isThreadAllocatedMemoryEnabled()) {
+                    return allocation;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @return the bytes allocated so far by the current thread, or -1 if
+         * the JVM can not measure it.
+         */
+        public static long allocatedBytes() {
+            return ALLOCATION == null ? -1 : ALLOCATION.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+
+        /**
+         * @return a stopwatch started now.
+         */
+        public static Stopwatch start() {
+            return new Stopwatch();
+        }
+
+        /**
+         * Ends the current stage and starts the next one.
+         *
+         * @return the cost of the stage that ended.
+         */
+        public Stage lap() {
+            long now = System.nanoTime();
+            long allocated = allocatedBytes();
+            Stage stage = new Stage(now - time, bytes < 0 ? -1 : allocated - bytes);
+            time = now;
+            bytes = allocated;
+            return stage;
+        }
+    }
+
+    /**
+     * Loads and registers the flight recorder events. The first event of each
+     * class is slow to make, so this is done before anything is timed. The
+     * events made here are never committed.
+     */
+    private static void loadEvents() {
+        GenerationEvent.start().shouldCommit();
+        SearchEvent.start().shouldCommit();
+        SortEvent.start().shouldCommit();
+    }
+
+    /**
+     * A flight recorder event for one attempt at generating a graph. Like the
+     * other events it is only filled in and committed when a recording has it
+     * enabled, so with no recording running it costs a begin and a check.
+     */
+    @Name("mst.Generation")
+    @Label("Graph Generation")
+    @Category("MST")
+    @Description("One attempt at sampling the edges of a graph")
+    public static class GenerationEvent extends Event {
+
+        @Label("Nodes")
+        public int n;
+        @Label("Edge Probability")
+        public double p;
+        @Label("Attempt")
+        public int attempt;
+        @Label("Edges")
+        public int edges;
+        @Label("Sampling")
+        public String sampling;
+
+        /**
+         * @return an event that has begun.
+         */
+        public static GenerationEvent start() {
+            GenerationEvent event = new GenerationEvent();
+            event.begin();
+            return event;
+        }
+
+        /**
+         * Ends the event and commits it if the recording wants it.
+         */
+        public void finish(int n, double p, int attempt, int edges, GenerationResult.Sampling sampling) {
+            if (shouldCommit()) {
+                this.n = n;
+                this.p = p;
+                this.attempt = attempt;
+                this.edges = edges;
+                this.sampling = sampling.name();
+                commit();
+            }
+        }
+    }
+
+    /**
+     * A flight recorder event for a search of a graph.
+     */
+    @Name("mst.Search")
+    @Label("Graph Search")
+    @Category("MST")
+    @Description("A depth or breadth first search of a graph")
+    public static class SearchEvent extends Event {
+
+        @Label("Nodes")
+        public int n;
+        @Label("Nodes Reached")
+        public int nodesReached;
+        @Label("Representation")
+        public String representation;
+        @Label("Order")
+        public String order;
+
+        /**
+         * @return an event that has begun.
+         */
+        public static SearchEvent start() {
+            SearchEvent event = new SearchEvent();
+            event.begin();
+            return event;
+        }
+
+        /**
+         * Ends the event and commits it if the recording wants it.
+         */
+        public void finish(int n, int nodesReached, String representation, String order) {
+            if (shouldCommit()) {
+                this.n = n;
+                this.nodesReached = nodesReached;
+                this.representation = representation;
+                this.order = order;
+                commit();
+            }
+        }
+    }
+
+    /**
+     * A flight recorder event for sorting the edges of a graph, not including
+     * extracting them.
+     */
+    @Name("mst.Sort")
+    @Label("Edge Sort")
+    @Category("MST")
+    @Description("A sort of the edges of a graph")
+    public static class SortEvent extends Event {
+
+        @Label("Nodes")
+        public int n;
+        @Label("Edges")
+        public int edges;
+        @Label("Sort Type")
+        public String sortType;
+
+        /**
+         * @return an event that has begun.
+         */
+        public static SortEvent start() {
+            SortEvent event = new SortEvent();
+            event.begin();
+            return event;
+        }
+
+        /**
+         * Ends the event and commits it if the recording wants it.
+         */
+        public void finish(int n, int edges, String sortType) {
+            if (shouldCommit()) {
+                this.n = n;
+                this.edges = edges;
+                this.sortType = sortType;
+                commit();
+            }
+        }
+    }
+
+    /**
+     * A result that can be printed for people or reported as metrics.
+     */
+    public interface Result {
+
+        /**
+         * Appends this result to the given builder.
+         *
+         * @param result the builder to append to.
+         * @return the builder.
+         */
+        StringBuilder appendTo(StringBuilder result);
+
+        /**
+         * Adds a line for each stage of this result.
+         *
+         * @param metrics the metrics to add to.
+         */
+        void addMetrics(Metrics metrics);
+    }
+
+    /**
+     * A graph that can be reported either as generated or as reused from a
+     * cache or a file.
+     */
+    public interface GraphResult extends Result {
+
+        /**
+         * Appends this graph with the given cost in place of the time it
+         * took to generate.
+         *
+         * @param result the builder to append to.
+         * @param timing what the cost was spent on.
+         * @param cost the cost to report.
+         * @return the given builder.
+         */
+        StringBuilder appendTo(StringBuilder result, String timing, Stage cost);
+
+        /**
+         * Adds a single metrics row for the given cost in place of the
+         * generation and search rows.
+         */
+        void addMetrics(Metrics metrics, String stage, Stage cost);
+    }
+
+    /**
+     * A graph that was reused instead of generated. Only the cost of
+     * finding it is reported, since the generation and search it carries
+     * were paid by an earlier case or run.
+     */
+    public static class ReusedGraph implements Result {
+
+        public final GraphResult graph;
+        /**
+         * The name of the metrics stage, such as cache or load.
+         */
+        public final String stage;
+        /**
+         * What the cost was spent on, for the text output.
+         */
+        public final String timing;
+        /**
+         * The cost of finding the graph.
+         */
+        public final Stage cost;
+
+        public ReusedGraph(GraphResult graph, String stage, String timing, Stage cost) {
+            this.graph = graph;
+            this.stage = stage;
+            this.timing = timing;
+            this.cost = cost;
+        }
+
+        @Override
+        public StringBuilder appendTo(StringBuilder result) {
+            return graph.appendTo(result, timing, cost);
+        }
+
+        @Override
+        public void addMetrics(Metrics metrics) {
+            graph.addMetrics(metrics, stage, cost);
+        }
+
+        @Override
+        public String toString() {
+            return appendTo(new StringBuilder()).toString();
+        }
+    }
+
+    /**
+     * Formats the stages of a test case as machine readable lines, one per
+     * stage, as CSV rows or JSON objects. Every line carries the case
+     * parameters so lines from many cases can be loaded together.
+     */
+    public static class Metrics {
+
+        public enum Format {
+            TEXT, CSV, JSON;
+
+            /**
+             * @return the format with the given name in any case, or null if
+             * there is none.
+             */
+            public static Format parse(String name) {
+                for (Format format : values()) {
+                    if (format.name().equalsIgnoreCase(name)) {
+                        return format;
+                    }
+                }
+                return null;
+            }
+        }
+
+        public static final String CSV_HEADER = "n,seed,p,stage,type,nanos,allocated_bytes,attempts,repair_edges,total_weight";
+
+        private final int n;
+        private final int seed;
+        private final double p;
+        private final Format format;
+        private final StringBuilder result;
+
+        /**
+         * @param n the number of nodes of the case.
+         * @param seed the seed of the case.
+         * @param p the edge probability of the case.
+         * @param format CSV or JSON.
+         * @param result the builder to append lines to.
+         */
+        public Metrics(int n, int seed, double p, Format format, StringBuilder result) {
+            this.n = n;
+            this.seed = seed;
+            this.p = p;
+            this.format = format;
+            this.result = result;
+        }
+
+        /**
+         * Appends a line for one stage. Values that do not apply to the stage
+         * are given as -1 and left out of the line.
+         *
+         * @param stage the name of the stage.
+         * @param type the algorithm or representation the stage used.
+         * @param cost the cost of the stage.
+         * @param attempts the number of generation attempts.
+         * @param repairEdges the number of edges added to connect the graph.
+         * @param totalWeight the total weight of the stage's edges.
+         */
+        public void add(String stage, String type, Stage cost, long attempts, long repairEdges, long totalWeight) {
+            if (format == Format.CSV) {
+                result.append(n).append(',').append(seed).append(',').append(p).append(',')
+                        .append(stage).append(',').append(type).append(',').append(cost.nanos);
+                appendCsv(cost.allocatedBytes);
+                appendCsv(attempts);
+                appendCsv(repairEdges);
+                appendCsv(totalWeight);
+                result.append('\n');
+            } else {
+                result.append("{\"n\":").append(n).append(",\"seed\":").append(seed).append(",\"p\":").append(p)
+                        .append(",\"stage\":\"").append(stage).append("\",\"type\":\"").append(type)
+                        .append("\",\"nanos\":").append(cost.nanos);
+                appendJson("allocated_bytes", cost.allocatedBytes);
+                appendJson("attempts", attempts);
+                appendJson("repair_edges", repairEdges);
+                appendJson("total_weight", totalWeight);
+                result.append("}\n");
+            }
+        }
+
+        private void appendCsv(long value) {
+            result.append(',');
+            if (value >= 0) {
+                result.append(value);
+            }
+        }
+
+        private void appendJson(String key, long value) {
+            if (value >= 0) {
+                result.append(",\"").append(key).append("\":").append(value);
+            }
+        }
+    }
+
+    /**
+     * An in memory cache of generated graphs, keyed by n, seed, p and how the
+     * graph was generated and stored. CSR graphs are kept with their sorted
+     * edges so a repeated case can build its tree without sorting again.
+     *
+     * Entries are evicted least recently used first once their estimated
+     * size passes the budget. When a spill directory is given, an evicted
+     * CSR graph is written there as a graph file and read back on its next
+     * miss. Graph objects are only kept in memory, since the graph file only
+     * holds the CSR form.
+     */
+    public static class GraphCache {
+
+        /**
+         * A cached graph.
+         */
+        public static class Entry {
+
+            /**
+             * The graph, either a Graph or a CSRGraph.
+             */
+            public final Object graph;
+            /**
+             * The sorted edges of a CSR graph, or null.
+             */
+            public final SortedEdges sorted;
+            /**
+             * The estimated size of the entry.
+             */
+            public final long bytes;
+
+            private Entry(Object graph, SortedEdges sorted, long bytes) {
+                this.graph = graph;
+                this.sorted = sorted;
+                this.bytes = bytes;
+            }
+        }
+
+        /**
+         * The largest estimated size to keep, in bytes.
+         */
+        public final long budget;
+        private final Path spill;
+        private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+        private long bytes;
+
+        /**
+         * @param budget the largest estimated size to keep, in bytes.
+         * @param spill the directory to write evicted CSR graphs to, or null
+         * to drop them.
+         */
+        public GraphCache(long budget, Path spill) {
+            this.budget = budget;
+            this.spill = spill;
+        }
+
+        /**
+         * Builds the key for a graph.
+         *
+         * @param representation how the graph was generated and stored.
+         */
+        public static String key(int n, int seed, double p, String representation) {
+            return n + "-" + seed + "-" + p + "-" + representation;
+        }
+
+        /**
+         * Finds a cached graph, reading it back from the spill directory if
+         * it was evicted there.
+         *
+         * @param key the key of the graph.
+         * @return the entry, or null if the graph is not cached.
+         */
+        public Entry get(String key) {
+            synchronized (this) {
+                Entry entry = entries.get(key);
+                if (entry != null || spill == null) {
+                    return entry;
+                }
+            }
+            // The file is read without holding the cache, so other lookups
+            // are not held up behind the disk.
+            Path path = spillPath(key);
+            if (!Files.exists(path)) {
+                return null;
+            }
+            Entry entry;
+            try {
+                GraphFile file = GraphFile.open(path);
+                CSRGraph graph = file.toCSRGraph();
+                SortedEdges sorted = file.sortedEdges();
+                entry = new Entry(graph, sorted, estimateBytes(graph, sorted));
+            } catch (IOException ex) {
+                System.err.println("Spilled graph could not be read: " + ex.getMessage());
+                return null;
+            }
+            spill(admit(key, entry));
+            return entry;
+        }
+
+        /**
+         * Caches a Graph.
+         */
+        public void put(String key, Graph graph) {
+            put(key, new Entry(graph, null, estimateBytes(graph)));
+        }
+
+        /**
+         * Caches a CSR graph with its sorted edges.
+         */
+        public void put(String key, CSRGraph graph, SortedEdges sorted) {
+            put(key, new Entry(graph, sorted, estimateBytes(graph, sorted)));
+        }
+
+        private void put(String key, Entry entry) {
+            spill(admit(key, entry));
+        }
+
+        /**
+         * Adds the entry, replacing any entry with its key, and evicts the
+         * least recently used entries until the cache fits its budget.
+         *
+         * @return the evicted entries, to be spilled once the cache is no
+         * longer held.
+         */
+        private synchronized LinkedHashMap<String, Entry> admit(String key, Entry entry) {
+            Entry previous = entries.remove(key);
+            if (previous != null) {
+                bytes -= previous.bytes;
+            }
+            entries.put(key, entry);
+            bytes += entry.bytes;
+            LinkedHashMap<String, Entry> evicted = new LinkedHashMap<String, Entry>();
+            Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+            while (bytes > budget && eldest.hasNext()) {
+                Map.Entry<String, Entry> victim = eldest.next();
+                eldest.remove();
+                bytes -= victim.getValue().bytes;
+                evicted.put(victim.getKey(), victim.getValue());
+            }
+            return evicted;
+        }
+
+        /**
+         * Writes the evicted CSR graphs to the spill directory.
+         */
+        private void spill(LinkedHashMap<String, Entry> evicted) {
+            if (spill == null) {
+                return;
+            }
+            for (Map.Entry<String, Entry> victim : evicted.entrySet()) {
+                Entry entry = victim.getValue();
+                if (!(entry.graph instanceof CSRGraph)) {
+                    continue;
+                }
+                try {
+                    Files.createDirectories(spill);
+                    // Written under a temporary name and moved into place, so
+                    // a lookup never reads a file that is half written.
+                    GraphFile.write(spillPath(victim.getKey()), (CSRGraph) entry.graph, entry.sorted);
+                } catch (IOException ex) {
+                    System.err.println("Graph could not be spilled: " + ex.getMessage());
+                }
+            }
+        }
+
+        private Path spillPath(String key) {
+            return spill.resolve(key.replace(' ', '_') + ".graph");
+        }
+
+        private static long estimateBytes(Graph graph) {
+            long matrix = 0;
+            if (graph.matrix instanceof FullMatrix) {
+                matrix = 4L * graph.n * graph.n;
+            } else if (graph.matrix instanceof TriangularMatrix) {
+                matrix = (long) graph.n * (graph.n - 1) / 2 * ((TriangularMatrix) graph.matrix).width;
+            }
+            // An edge object for each direction of the list and for the edge
+            // array, each with a reference to it.
+            return matrix + 96L * graph.edges.length + 64L * graph.n;
+        }
+
+        private static long estimateBytes(CSRGraph graph, SortedEdges sorted) {
+            // A graph read back from a spill file is mapped rather than on the
+            // heap, but still counts against the budget so the cache can not
+            // hold on to every file it ever read.
+            return 4L * (graph.offsets.length() + graph.targets.length() + graph.weights.length() + graph.predecessors.length())
+                    + 12L * sorted.size;
+        }
+    }
+
+    /**
+     * A single test case read from an input file, or the error reading it.
+     */
+    public static class TestCase {
+
+        public final int n;
+        public final int seed;
+        public final double p;
+        /**
+         * The options given after p.
+         */
+        public final HashMap<String, String> options;
+        /**
+         * The error to print instead of running, or null if the case is
+         * valid.
+         */
+        public final String error;
+
+        public TestCase(int n, int seed, double p, HashMap<String, String> options) {
+            this.n = n;
+            this.seed = seed;
+            this.p = p;
+            this.options = options;
+            this.error = null;
+        }
+
+        public TestCase(String error) {
+            this.n = 0;
+            this.seed = 0;
+            this.p = 0;
+            this.options = null;
+            this.error = error;
+        }
+
+        /**
+         * Runs the case, writing its results to the given output.
+         *
+         * @param threads the number of threads the case may use.
+         * @param format the format to write results in. Errors go to
+         * standard error unless the format is text.
+         * @param graphCache the cache of generated graphs, or null.
+         * @param out the output to write to.
+         * @param buffer a scratch buffer for formatting results.
+         * @throws IOException if the output can not be written.
+         */
+        public void run(int threads, Metrics.Format format, GraphCache graphCache, Writer out, StringBuilder buffer) throws IOException {
+            String message = error;
+            if (message == null) {
+                try {
+                    runCase(n, seed, p, options, threads, format, graphCache, out, buffer);
+                } catch (IOException ex) {
+                    message = "Graph file could not be used: " + ex.getMessage();
+                }
+            }
+            if (message != null && format == Metrics.Format.TEXT) {
+                println(out, buffer.append(message));
+            } else if (message != null) {
+                System.err.println(message);
+            }
+        }
+
+        /**
+         * A rough estimate of the most memory the case holds at once.
+         *
+         * @return the estimate, in bytes.
+         */
+        public long estimateBytes() {
+            if (error != null) {
+                return 0;
+            }
+            long edges = (long) (p * n * (n - 1) / 2);
+            if (options.containsKey("external")) {
+                // The edge buffer, the disjoint sets and the tree.
+                return externalBudget(options) + 32L * n;
+            }
+            if (options.containsKey("csr") && options.containsKey("offheap")) {
+                // The generated edges until the graph is built, then only
+                // the offsets, predecessors and trees.
+                return 12 * edges + 32L * n;
+            }
+            if (options.containsKey("csr")) {
+                // The CSR arrays, the generated edges and one store per sort.
+                return 80 * edges + 16L * n;
+            }
+            // An off heap matrix is counted by estimateOffHeapBytes instead.
+            long matrix = options.containsKey("offheap") ? 0 : matrixBytes(n, options);
+            // The edge objects of the list and of each matrix sort, and the
+            // arrays of all ten sorts.
+            return matrix + 300 * edges + 64L * n;
+        }
+
+        /**
+         * A rough estimate of the most direct buffer memory the case holds at
+         * once, which is limited apart from the heap.
+         *
+         * @return the estimate, in bytes.
+         */
+        public long estimateOffHeapBytes() {
+            if (error == null && options.containsKey("external")) {
+                // A read buffer for each run of a merge and one to write.
+                return (ExternalKruskal.MAX_FAN_IN + 1L) * ExternalKruskal.IO_BUFFER;
+            }
+            if (error == null && options.containsKey("offheap")) {
+                // The targets and weights of a CSR case along with its edge
+                // store, or the matrix of any other.
+                return options.containsKey("csr") ? 28L * (long) (p * n * (n - 1) / 2) : matrixBytes(n, options);
+            }
+            return 0;
+        }
+
+        /**
+         * @return the bytes the adjacency matrix of a case with the given
+         * options takes, whatever its sampling.
+         */
+        static long matrixBytes(int n, HashMap<String, String> options) {
+            if (options.containsKey("compact") && !options.containsKey("offheap")) {
+                return (long) n * (n - 1) / 2 * (n <= 0xFF ? 1 : n <= 0xFFFF ? 2 : 4);
+            }
+            return 4L * n * n;
+        }
+
+        /**
+         * @return true if the case builds an adjacency matrix that can never
+         * fit, on the heap or in direct memory as its options ask.
+         */
+        static boolean matrixTooLarge(int n, HashMap<String, String> options) {
+            if (options.containsKey("csr") || options.containsKey("external")) {
+                return false;
+            }
+            long limit = options.containsKey("offheap") ? Runner.maxDirectMemory() : Runtime.getRuntime().maxMemory();
+            return matrixBytes(n, options) > limit;
+        }
+    }
+
+    /**
+     * Runs test cases on a bounded pool of workers and writes their results
+     * in the order the cases were submitted.
+     *
+     * Before a case starts it reserves its estimated memory from a budget of
+     * three quarters of the heap, less any graph cache, so only as many
+     * large graphs are built at once as the heap can hold. A case larger than the whole budget waits
+     * to run alone. Off heap memory is reserved the same way from three
+     * quarters of the direct buffer limit. With a single job the cases run on the calling thread
+     * and their results stream straight to the output.
+     */
+    public static class Runner {
+
+        private static final long MEGABYTE = 1 << 20;
+
+        private final int jobs;
+        private final Metrics.Format format;
+        private final GraphCache graphCache;
+        private final Writer out;
+        private final StringBuilder buffer = new StringBuilder();
+        private final ExecutorService executor;
+        /**
+         * Permits for running cases, needed when virtual threads leave the
+         * executor itself unbounded.
+         */
+        private final Semaphore slots;
+        /**
+         * The memory budget, in megabytes.
+         */
+        private final Semaphore memory;
+        private final int budget;
+        /**
+         * The direct buffer budget, in megabytes.
+         */
+        private final Semaphore offHeapMemory;
+        private final int offHeapBudget;
+        /**
+         * Results not yet written, in submission order.
+         */
+        private final ArrayDeque<Future<String>> pending = new ArrayDeque<Future<String>>();
+
+        /**
+         * @param jobs the number of cases to run at once.
+         * @param virtual true to run cases on virtual threads where the JVM
+         * has them.
+         * @param format the format to write results in.
+         * @param graphCache the cache of generated graphs, or null.
+         * @param out the output to write results to.
+         */
+        public Runner(int jobs, boolean virtual, Metrics.Format format, GraphCache graphCache, Writer out) {
+            this.jobs = jobs;
+            this.format = format;
+            this.graphCache = graphCache;
+            this.out = out;
+            this.executor = jobs == 1 ? null : newExecutor(jobs, virtual);
+            this.slots = new Semaphore(jobs);
+            // Memory the cache may hold is not available to running cases.
+            long available = Runtime.getRuntime().maxMemory() / 4 * 3 - (graphCache == null ? 0 : graphCache.budget);
+            this.budget = (int) Math.max(1, available / MEGABYTE);
+            this.memory = new Semaphore(budget, true);
+            this.offHeapBudget = (int) Math.max(1, maxDirectMemory() / 4 * 3 / MEGABYTE);
+            this.offHeapMemory = new Semaphore(offHeapBudget, true);
+        }
+
+        /**
+         * @return the most memory direct buffers may take, which defaults to
+         * the largest heap when MaxDirectMemorySize is not set.
+         */
+        static long maxDirectMemory() {
+            try {
+                com.sun.management.HotSpotDiagnosticMXBean diagnostics
+                        = ManagementFactory.getPlatformMXBean(com.sun.management.HotSpotDiagnosticMXBean.class);
+                long limit = diagnostics == null ? 0 : Long.parseLong(diagnostics.getVMOption("MaxDirectMemorySize").getValue());
+                if (limit > 0) {
+                    return limit;
+                }
+            } catch (RuntimeException ex) {
+                // Not a HotSpot JVM, assume the default.
+            }
+            return Runtime.getRuntime().maxMemory();
+        }
+
+        private static ExecutorService newExecutor(int jobs, boolean virtual) {
+            if (virtual) {
+                try {
+                    return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+                } catch (ReflectiveOperationException ex) {
+                    // Virtual threads need Java 21, use platform threads.
+                }
+            }
+            return Executors.newFixedThreadPool(jobs);
+        }
+
+        /**
+         * Runs the given case, or queues it to run once there is room. A case
+         * that throws is reported as failed in place of its output and the
+         * rest of the batch carries on, however many jobs there are.
+         *
+         * @param testCase the case.
+         * @throws IOException if the output can not be written.
+         */
+        public void submit(TestCase testCase) throws IOException {
+            if (executor == null) {
+                String result;
+                try {
+                    // Written to a string first, as on the pool, so a failed
+                    // case leaves no partial output behind.
+                    StringWriter writer = new StringWriter();
+                    testCase.run(Runtime.getRuntime().availableProcessors(), format, graphCache, writer, buffer);
+                    result = writer.toString();
+                } catch (Exception | Error ex) {
+                    buffer.setLength(0);
+                    result = failed(ex);
+                }
+                out.write(result);
+                // Flush between cases so long batches show progress.
+                out.flush();
+                return;
+            }
+            // Keep a few cases queued past the running ones, but no more, so
+            // finished results do not pile up behind a slow case.
+            while (pending.size() >= 2 * jobs) {
+                writeNext();
+            }
+            int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / jobs);
+            int megabytes = (int) Math.min(budget, (testCase.estimateBytes() + MEGABYTE - 1) / MEGABYTE);
+            int offHeapMegabytes = (int) Math.min(offHeapBudget, (testCase.estimateOffHeapBytes() + MEGABYTE - 1) / MEGABYTE);
+            pending.add(executor.submit(() -> {
+                slots.acquire();
+                // Always taken in this order, so two cases can not each hold
+                // what the other waits for.
+                memory.acquire(megabytes);
+                try {
+                    offHeapMemory.acquire(offHeapMegabytes);
+                    try {
+                        StringWriter result = new StringWriter();
+                        testCase.run(threads, format, graphCache, result, new StringBuilder());
+                        return result.toString();
+                    } finally {
+                        offHeapMemory.release(offHeapMegabytes);
+                    }
+                } finally {
+                    memory.release(megabytes);
+                    slots.release();
+                }
+            }));
+        }
+
+        private void writeNext() throws IOException {
+            String result;
+            try {
+                result = pending.poll().get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while waiting for a test case");
+            } catch (ExecutionException ex) {
+                result = failed(ex.getCause());
+            }
+            out.write(result);
+            out.flush();
+        }
+
+        /**
+         * @return the line written in place of the output of a case that
+         * threw the given exception.
+         */
+        private static String failed(Throwable cause) {
+            return "Test case failed: " + cause + "\n";
+        }
+
+        /**
+         * Waits for every submitted case and writes its results.
+         *
+         * @throws IOException if the output can not be written.
+         */
+        public void finish() throws IOException {
+            while (!pending.isEmpty()) {
+                writeNext();
+            }
+        }
+
+        /**
+         * Stops the workers, abandoning any case not yet finished.
+         */
+        public void shutdown() {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    public static class Benchmark {
+
+        /**
+         * Holds the result of every measured call so the JIT can not remove
+         * the work being measured.
+         */
+        private static volatile int sink;
+
+        /**
+         * The name of the measured stage.
+         */
+        public final String name;
+        public final int n;
+        public final double p;
+        /**
+         * The mean time of one call, in nanoseconds.
+         */
+        public final double mean;
+        /**
+         * The standard deviation of the time of one call, in nanoseconds.
+         */
+        public final double deviation;
+        /**
+         * The mean number of bytes allocated by the calling thread during one
+         * call, or -1 if the JVM can not measure it.
+         */
+        public final long allocatedBytes;
+        /**
+         * True if the stage also allocates on the threads of its own fork/join
+         * pool. Those threads are gone by the time the call returns, so
+         * allocatedBytes only counts the calling thread and is too low.
+         */
+        public final boolean callerOnly;
+
+        // Marked as private to encourage use of static construction method.
+        private Benchmark(String name, int n, double p, double mean, double deviation, long allocatedBytes, boolean callerOnly) {
+            this.name = name;
+            this.n = n;
+            this.p = p;
+            this.mean = mean;
+            this.deviation = deviation;
+            this.allocatedBytes = allocatedBytes;
+            this.callerOnly = callerOnly;
+        }
+
+        /**
+         * Times the given stage after first running it enough to warm up the
+         * JIT. A full GC is requested before each measured call so garbage
+         * from earlier calls is not charged to it.
+         *
+         * @param name the name of the stage.
+         * @param n the number of nodes in the graph.
+         * @param p the edge probability of the graph.
+         * @param warmup the number of unmeasured calls.
+         * @param iterations the number of measured calls.
+         * @param stage the stage to measure.
+         * @return the measurement.
+         */
+        public static Benchmark measure(String name, int n, double p, int warmup, int iterations, Supplier<Object> stage) {
+            return measure(name, n, p, warmup, iterations, false, stage);
+        }
+
+        /**
+         * Times the given stage like {@link #measure(String, int, double, int,
+         * int, Supplier)}.
+         *
+         * @param parallel true if the stage runs on a fork/join pool of its
+         * own, so only the allocation of the calling thread can be counted.
+         */
+        public static Benchmark measure(String name, int n, double p, int warmup, int iterations, boolean parallel, Supplier<Object> stage) {
+            for (int i = 0; i < warmup; i++) {
+                sink ^= System.identityHashCode(stage.get());
+            }
+            java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            com.sun.management.ThreadMXBean allocation = threads instanceof com.sun.management.ThreadMXBean
+                    ? (com.sun.management.ThreadMXBean) threads
+                    : null;
+            long threadId = Thread.currentThread().getId();
+            double[] times = new double[iterations];
+            long allocatedBytes = 0;
+            for (int i = 0; i < iterations; i++) {
+                System.gc();
+                long bytes = allocation == null ? 0 : allocation.getThreadAllocatedBytes(threadId);
+                long time = System.nanoTime();
+                sink ^= System.identityHashCode(stage.get());
+                times[i] = System.nanoTime() - time;
+                allocatedBytes += allocation == null ? 0 : allocation.getThreadAllocatedBytes(threadId) - bytes;
+            }
+            double mean = 0;
+            for (double time : times) {
+                mean += time;
+            }
+            mean /= iterations;
+            double deviation = 0;
+            for (double time : times) {
+                deviation += (time - mean) * (time - mean);
+            }
+            deviation = Math.sqrt(deviation / iterations);
+            return new Benchmark(name, n, p, mean, deviation, allocation == null ? -1 : allocatedBytes / iterations, parallel);
+        }
+
+        /**
+         * Runs every stage over every combination of the given parameters and
+         * prints one line per stage. Arguments after "--bench" are of the form
+         * n=100,1000 p=0.1,0.5 seed=1 warmup=5 iterations=10.
+         *
+         * @param args the command line arguments.
+         */
+        public static void run(String[] args) {
+            String[] ns = {"100", "300"};
+            String[] ps = {"0.1", "0.5"};
+            int seed = 1;
+            int warmup = 5;
+            int iterations = 10;
+            for (int i = 1; i < args.length; i++) {
+                String[] pair = args[i].split("=", 2);
+                String value = pair.length == 2 ? pair[1] : "";
+                try {
+                    switch (pair[0]) {
+                        case "n":
+                            ns = value.split(",");
+                            break;
+                        case "p":
+                            ps = value.split(",");
+                            break;
+                        case "seed":
+                            seed = Integer.parseInt(value);
+                            break;
+                        case "warmup":
+                            warmup = Integer.parseInt(value);
+                            break;
+                        case "iterations":
+                            iterations = Integer.parseInt(value);
+                            break;
+                        default:
+                            System.out.println("Unknown benchmark option " + args[i]);
+                            return;
+                    }
+                } catch (NumberFormatException ex) {
+                    System.out.println("Benchmark option " + args[i] + " must be an integer");
+                    return;
+                }
+            }
+            if (iterations < 1) {
+                System.out.println("iterations must be greater than 0");
+                return;
+            }
+            if (warmup < 0) {
+                System.out.println("warmup must not be negative");
+                return;
+            }
+            for (String nValue : ns) {
+                for (String pValue : ps) {
+                    int n;
+                    double p;
+                    try {
+                        n = Integer.parseInt(nValue);
+                        p = Double.parseDouble(pValue);
+                    } catch (NumberFormatException ex) {
+                        System.out.println("n must be an integer and p must be a real number");
+                        return;
+                    }
+                    if (n < 2 || !(p >= 0 && p <= 1)) {
+                        System.out.println("n must be greater than 1 and p must be between 0 and 1");
+                        return;
+                    }
+                    for (Benchmark result : runAll(n, seed, p, warmup, iterations)) {
+                        System.out.println(result.toString());
+                    }
+                }
+            }
+        }
+
+        private static ArrayList<Benchmark> runAll(int n, int seed, double p, int warmup, int iterations) {
+            ArrayList<Benchmark> results = new ArrayList<Benchmark>();
+            results.add(measure("generate", n, p, warmup, iterations, () -> Graph.generate(n, seed, p)));
+            Graph graph = Graph.generate(n, seed, p);
+            results.add(measure("dfs", n, p, warmup, iterations, () -> DFSResult.search(graph.adjacencyList, 0)));
+            results.add(measure("bfs", n, p, warmup, iterations, () -> DFSResult.searchBreadthFirst(graph.adjacencyList, 0)));
+            if (graph.edges.length <= INSERTION_SORT_LIMIT) {
+                results.add(measure("insertion sort matrix", n, p, warmup, iterations, () -> EdgeSortResult.doInsertionSortMatrix(graph)));
+                results.add(measure("insertion sort list", n, p, warmup, iterations, () -> EdgeSortResult.doInsertionSortList(graph)));
+            }
+            results.add(measure("extract matrix", n, p, warmup, iterations, () -> EdgeSortResult.extractMatrix(graph)));
+            results.add(measure("count sort matrix", n, p, warmup, iterations, () -> EdgeSortResult.doCountSortMatrix(graph)));
+            results.add(measure("count sort list", n, p, warmup, iterations, () -> EdgeSortResult.doCountSortList(graph)));
+            results.add(measure("quicksort matrix", n, p, warmup, iterations, () -> EdgeSortResult.doQuickSortMatrix(graph)));
+            results.add(measure("quicksort list", n, p, warmup, iterations, () -> EdgeSortResult.doQuickSortList(graph)));
+            results.add(measure("radix sort matrix", n, p, warmup, iterations, true, () -> EdgeSortResult.doRadixSortMatrix(graph)));
+            results.add(measure("radix sort list", n, p, warmup, iterations, true, () -> EdgeSortResult.doRadixSortList(graph)));
+            results.add(measure("introsort matrix", n, p, warmup, iterations, true, () -> EdgeSortResult.doIntroSortMatrix(graph)));
+            results.add(measure("introsort list", n, p, warmup, iterations, true, () -> EdgeSortResult.doIntroSortList(graph)));
+            EdgeSortResult sorted = EdgeSortResult.doQuickSortList(graph);
+            results.add(measure("kruskal", n, p, warmup, iterations, () -> MSTResult.doKruskal(n, sorted)));
+            results.add(measure("prim matrix", n, p, warmup, iterations, () -> MSTResult.doPrimMatrix(graph)));
+            results.add(measure("prim list", n, p, warmup, iterations, () -> MSTResult.doPrimList(graph)));
+            int threads = Runtime.getRuntime().availableProcessors();
+            results.add(measure("boruvka", n, p, warmup, iterations, true, () -> MSTResult.doBoruvka(graph, threads)));
+            results.add(measure("filter kruskal", n, p, warmup, iterations, () -> MSTResult.doFilterKruskal(graph)));
+            DynamicGraph dynamic = DynamicGraph.fromGraph(graph);
+            SplittableRandom random = new SplittableRandom(seed);
+            results.add(measure("dynamic update", n, p, warmup, iterations, () -> {
+                Edge edge = graph.edges[random.nextInt(graph.edges.length)];
+                dynamic.updateWeight(edge.source.id, edge.target.id, random.nextInt(n) + 1);
+                return dynamic;
+            }));
+            return results;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-24s n=%-8d p=%-8s %12.3f ms/op +- %10.3f %14s B/op%s",
+                    name, n, p, mean / 1e6, deviation / 1e6, allocatedBytes < 0 ? "?" : Long.toString(allocatedBytes),
+                    callerOnly ? " (caller thread only)" : "");
+        }
     }
 }